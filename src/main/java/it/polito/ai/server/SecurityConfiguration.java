@@ -56,6 +56,8 @@ httpSecurity
         .antMatchers( "/API/students/**").hasRole("STUDENT")
         .antMatchers( "/API/courses/**").hasAnyRole("TEACHER", "STUDENT")
         .antMatchers( "/API/teachers/**").hasRole("TEACHER")
+        .antMatchers( "/actuator/**").hasRole("TEACHER")
+        .antMatchers( "/API/events").hasAnyRole("TEACHER", "STUDENT")
         .anyRequest().permitAll()
         .and()
         .exceptionHandling().authenticationEntryPoint(jwtAuthenticationEntryPoint)
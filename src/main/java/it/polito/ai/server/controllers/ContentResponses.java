@@ -0,0 +1,82 @@
+package it.polito.ai.server.controllers;
+
+import it.polito.ai.server.entities.ContentRef;
+import it.polito.ai.server.services.ContentTypes;
+import it.polito.ai.server.services.StoredContent;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+
+/*
+ * Metodi di supporto per restituire al client i contenuti binari (consegne, elaborati, immagini).
+ */
+final class ContentResponses {
+
+    private ContentResponses() {
+    }
+
+    /*
+     * Codifica in Base64 il contenuto leggendolo come stream: in memoria c'è solo il risultato codificato,
+     * mai anche la copia dei byte originali.
+     */
+    static byte[] base64(Resource contenuto) {
+        if (contenuto == null) {
+            return null;
+        }
+        try (InputStream in = contenuto.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, (contenuto.contentLength() + 2) / 3 * 4));
+            try (OutputStream encoder = Base64.getEncoder().wrap(out)) {
+                StreamUtils.copy(in, encoder);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    static byte[] base64(byte[] contenuto) {
+        if (contenuto == null) {
+            return null;
+        }
+        return Base64.getEncoder().encode(contenuto);
+    }
+
+    /*
+     * Risposta binaria con Content-Type e ETag forte ricavato dall'hash del contenuto.
+     * Spring gestisce poi da solo If-None-Match (304) e l'header Range (206) perchè il body è una Resource.
+     */
+    static ResponseEntity<Resource> raw(StoredContent contenuto) {
+        if (contenuto == null) {
+            return ResponseEntity.noContent().build();
+        }
+        ContentRef ref = contenuto.getRef();
+        return raw(contenuto, ref.getSha256(), ref.getContentType());
+    }
+
+    static ResponseEntity<Resource> raw(byte[] contenuto) {
+        if (contenuto == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return raw(new ByteArrayResource(contenuto), DigestUtils.md5DigestAsHex(contenuto), ContentTypes.detect(contenuto));
+    }
+
+    private static ResponseEntity<Resource> raw(Resource contenuto, String hash, String contentType) {
+        return ResponseEntity.ok()
+                .eTag("\"" + hash + "\"")
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .contentType(contentType != null ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM)
+                .body(contenuto);
+    }
+}
@@ -4,13 +4,22 @@ import it.polito.ai.server.dtos.*;
 import it.polito.ai.server.entities.VirtualMachine;
 import it.polito.ai.server.services.*;
 import it.polito.ai.server.services.exceptions.*;
-import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.io.*;
@@ -20,6 +29,9 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @RestController
 @RequestMapping("/API/courses")
@@ -28,6 +40,9 @@ public class CourseController {
     @Autowired
     TeamService teamService;
 
+    @Autowired
+    CompressionPolicy compressionPolicy;
+
     /**
      * Ottiene tutti i corsi
      * @return lista di tutti i corsi
@@ -174,6 +189,25 @@ public class CourseController {
         }
     }
 
+    /**
+     * Ottiene lo spazio occupato dai contenuti (consegne ed elaborati) di un corso e il guadagno dovuto a deduplicazione e compressione
+     * @param name nome del corso
+     * @return dimensione logica, fisica e su disco, rapporto di deduplicazione e di compressione
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping("/{name}/storage")
+    public StorageStatsDTO getStorageStats(@PathVariable String name) {
+        try {
+            return teamService.getStorageStats(name);
+        } catch (CourseNotFoundException | TeacherNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, name);
+        } catch (InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        } catch (InvalidCourseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Disiscrive uno studente da un corso
      * @param name nome del corso
@@ -458,10 +492,12 @@ public class CourseController {
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Insert scadenza");
             }
 
-            teamService.createConsegna(scadenza, name, consegna, ArrayUtils.toObject(file.getBytes()));
+            teamService.createConsegna(scadenza, name, consegna, file.getInputStream());
 
         } catch (ParseException | IOException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expiration must have format: dd/mm/yyyy");
+        } catch (ContentStoreException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (CourseNotFoundException cnf) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Course not found");
         } catch (TeacherNotFoundException tnf) {
@@ -499,9 +535,24 @@ public class CourseController {
      */
     @GetMapping("/{courseName}/consegne/{id}")
     public byte[] getConsegnaForCourse(@PathVariable String courseName, @PathVariable String id) {
+        return ContentResponses.base64(consegna(id));
+    }
+
+    /**
+     * Ottiene il contenuto di una consegna in formato binario (con ETag e supporto a Range)
+     * @param courseName nome del corso
+     * @param id ID della consegna
+     * @return contenuto della consegna
+     * Accessibile ai ruoli: Teacher, Student
+     */
+    @GetMapping("/{courseName}/consegne/{id}/raw")
+    public ResponseEntity<Resource> getConsegnaForCourseRaw(@PathVariable String courseName, @PathVariable String id) {
+        return ContentResponses.raw(consegna(id));
+    }
+
+    private StoredContent consegna(String id) {
         try {
-            Byte[] res =  teamService.getConsegnaForCourse(id);
-            return Base64.getEncoder().encode(ArrayUtils.toPrimitive(res));
+            return teamService.getConsegnaForCourse(id);
         } catch (InvalidConsegnaException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         } catch (ConsegnaNotFoundException e) {
@@ -511,16 +562,77 @@ public class CourseController {
     }
 
     /**
-     * Ottiene gli elaborati relativi a una consegna
+     * Ottiene gli elaborati relativi a una consegna.
+     * La risposta ha un ETag debole: se la lista non è cambiata, con If-None-Match si riceve 304 senza corpo.
      * @param courseName nome del corso
      * @param consegnaId ID della consegna
+     * @param stato se presente, solo gli elaborati con questo stato
      * @return
      * Accessibile ai ruoli: Teacher
      */
     @GetMapping("/{courseName}/consegne/{consegnaId}/elaborati")
-    public List<ElaboratoForTeacherDTO> getElaborati(@PathVariable String courseName, @PathVariable String consegnaId) {
+    public List<ElaboratoForTeacherDTO> getElaborati(@PathVariable String courseName, @PathVariable String consegnaId,
+                                                     @RequestParam(required = false) String stato, WebRequest request) {
+        try {
+            if (request.checkNotModified(teamService.getElaboratiETag(courseName, Long.parseLong(consegnaId)))) {
+                return null;
+            }
+            return teamService.getElaborati(courseName, Long.parseLong(consegnaId), stato);
+        } catch (CourseNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, courseName);
+        } catch (InvalidCourseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, courseName);
+        } catch (InvalidConsegnaException | InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } catch (ConsegnaNotFoundException | TeacherNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+    }
+
+    /**
+     * Ottiene solo gli elaborati creati dopo il cursore since, per aggiornare una lista già scaricata con getElaborati.
+     * Alla prima richiesta (since assente) restituisce lo storico completo senza le righe NULL implicite.
+     * Gli elaborati cancellati (studente rimosso dal corso) non vengono segnalati: in quel caso cambia l'ETag di getElaborati.
+     * @param courseName nome del corso
+     * @param consegnaId ID della consegna
+     * @param since cursor restituito dalla richiesta precedente
+     * @param stato se presente, solo gli elaborati con questo stato
+     * @return nuovi elaborati e cursore da usare la volta successiva
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping("/{courseName}/consegne/{consegnaId}/elaborati/changes")
+    public ElaboratiChangesDTO getElaboratiChanges(@PathVariable String courseName, @PathVariable String consegnaId,
+                                                   @RequestParam(required = false) Long since,
+                                                   @RequestParam(required = false) String stato) {
+        try {
+            return teamService.getElaboratiSince(courseName, Long.parseLong(consegnaId), since, stato);
+        } catch (CourseNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, courseName);
+        } catch (InvalidCourseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, courseName);
+        } catch (InvalidConsegnaException | InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } catch (ConsegnaNotFoundException | TeacherNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+    }
+
+    /**
+     * Vista per la valutazione di una consegna: gli elaborati (come in getElaborati) e un riepilogo
+     * con il numero di studenti per stato corrente, quanti sono stati valutati e la media dei voti
+     * @param courseName nome del corso
+     * @param consegnaId ID della consegna
+     * @param stato se presente, solo gli elaborati con questo stato (il riepilogo resta sull'intera consegna)
+     * @return elaborati e riepilogo
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping("/{courseName}/consegne/{consegnaId}/valutazione")
+    public ValutazioneConsegnaDTO getValutazioneConsegna(@PathVariable String courseName, @PathVariable String consegnaId,
+                                                         @RequestParam(required = false) String stato) {
         try {
-            return teamService.getElaborati(courseName, Long.parseLong(consegnaId));
+            return teamService.getValutazioneConsegna(courseName, Long.parseLong(consegnaId), stato);
         } catch (CourseNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, courseName);
         } catch (InvalidCourseException e) {
@@ -534,16 +646,27 @@ public class CourseController {
     }
 
     /**
-     * Ottiene solo l'ultimo elaborato relativo a una certa consegna per ogni studente
+     * Ottiene solo l'ultimo elaborato relativo a una certa consegna per ogni studente, una pagina alla volta
+     * (ordinati per ID studente). Il numero totale di studenti è nell'header X-Total-Count.
      * @param courseName nome del corso
      * @param consegnaId ID della consegna
+     * @param page numero della pagina (da 0)
+     * @param size dimensione della pagina (massimo 1000)
      * @return lista di elaborati
      * Accessibile ai ruoli: Teacher
      */
     @GetMapping("/{courseName}/consegne/{consegnaId}/ultimiElaborati")
-    public List<ElaboratoDTO> getUltimiElaborati(@PathVariable String courseName, @PathVariable String consegnaId) {
+    public ResponseEntity<List<ElaboratoDTO>> getUltimiElaborati(@PathVariable String courseName, @PathVariable String consegnaId,
+                                                                 @RequestParam(defaultValue = "0") int page,
+                                                                 @RequestParam(defaultValue = "500") int size) {
+        if (page < 0 || size < 1 || size > 1000) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
         try {
-            return teamService.getUltimiElaborati(courseName, Long.parseLong(consegnaId));
+            Page<ElaboratoDTO> elaborati = teamService.getUltimiElaborati(courseName, Long.parseLong(consegnaId), PageRequest.of(page, size));
+            return ResponseEntity.ok()
+                    .header("X-Total-Count", String.valueOf(elaborati.getTotalElements()))
+                    .body(elaborati.getContent());
         } catch (CourseNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, courseName);
         } catch (InvalidCourseException e) {
@@ -556,6 +679,56 @@ public class CourseController {
 
     }
 
+    /**
+     * Scarica in un unico archivio zip l'ultimo elaborato di ogni studente per una consegna.
+     * Lo zip viene generato mentre viene inviato, leggendo un elaborato alla volta.
+     * Ogni file è chiamato idStudente_stato (più l'estensione del formato riconosciuto).
+     * @param courseName nome del corso
+     * @param consegnaId ID della consegna
+     * @return archivio zip
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping("/{courseName}/consegne/{consegnaId}/elaborati/zip")
+    public ResponseEntity<StreamingResponseBody> getUltimiElaboratiZip(@PathVariable String courseName, @PathVariable Long consegnaId) {
+        List<ElaboratoContentDTO> elaborati;
+        try {
+            elaborati = teamService.getUltimiElaboratiContent(courseName, consegnaId);
+        } catch (CourseNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, courseName);
+        } catch (InvalidCourseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, courseName);
+        } catch (InvalidConsegnaException | InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } catch (ConsegnaNotFoundException | TeacherNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+        StreamingResponseBody body = out -> {
+            try (ZipOutputStream zip = new ZipOutputStream(out)) {
+                byte[] buffer = new byte[64 * 1024];
+                for (ElaboratoContentDTO elaborato : elaborati) {
+                    String contentType = elaborato.getContenuto().getRef().getContentType();
+                    /*i formati già compressi vengono solo archiviati: ricomprimerli costerebbe CPU senza guadagno*/
+                    zip.setLevel(compressionPolicy.shouldCompress(contentType) ? Deflater.BEST_SPEED : Deflater.NO_COMPRESSION);
+                    zip.putNextEntry(new ZipEntry(elaborato.getStudentId() + "_" + elaborato.getStato() + ContentTypes.extension(contentType)));
+                    try (InputStream in = elaborato.getContenuto().getInputStream()) {
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            zip.write(buffer, 0, n);
+                        }
+                    }
+                    zip.closeEntry();
+                }
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                        .filename(courseName + "_consegna_" + consegnaId + ".zip").build().toString())
+                .body(body);
+    }
+
     /**
      * Ottiene gli elaborati consegnati per una certa consegna da un certo studente
      * @param courseName nome del corso
@@ -602,14 +775,30 @@ public class CourseController {
                                @PathVariable String consegnaId,
                                @PathVariable String elaboratoId,
                                @PathVariable String studentId) {
+        return ContentResponses.base64(elaborato(courseName, consegnaId, elaboratoId, studentId));
+    }
+
+    /**
+     * Ottiene il contenuto di un certo elaborato in formato binario (con ETag e supporto a Range)
+     * @param courseName nome del corso
+     * @param consegnaId ID della consegna
+     * @param elaboratoId ID dell'elaborato
+     * @param studentId ID dello studente
+     * @return contenuto dell'elaborato
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping("/{courseName}/students/{studentId}/consegne/{consegnaId}/elaborati/{elaboratoId}/raw")
+    public ResponseEntity<Resource> getElaboratoRaw(@PathVariable String courseName,
+                                                    @PathVariable String consegnaId,
+                                                    @PathVariable String elaboratoId,
+                                                    @PathVariable String studentId) {
+        return ContentResponses.raw(elaborato(courseName, consegnaId, elaboratoId, studentId));
+    }
+
+    private StoredContent elaborato(String courseName, String consegnaId, String elaboratoId, String studentId) {
         try {
 
-            Byte[] res =teamService.getElaborato(Long.parseLong(elaboratoId), courseName, studentId, Long.parseLong(consegnaId));
-            if(res!=null){
-                return Base64.getEncoder().encode(ArrayUtils.toPrimitive(res));
-            }else{
-                return null;
-            }
+            return teamService.getElaborato(Long.parseLong(elaboratoId), courseName, studentId, Long.parseLong(consegnaId));
         } catch (StudentNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, studentId);
         } catch (InvalidConsegnaException | InvalidElaboratoException | InvalidTeacherException e) {
@@ -657,7 +846,7 @@ public class CourseController {
             }
 
             teamService.correggereElaborato(Long.parseLong(elaboratoId), courseName,
-                    Long.parseLong(consegnaId), ArrayUtils.toObject(file.getBytes()),
+                    Long.parseLong(consegnaId), file.getInputStream(),
                     possibileRiconsegna.toLowerCase(), voto);
 
         } catch (ElaboratoNotFoundException | ConsegnaNotFoundException | StudentNotFoundException
@@ -667,11 +856,35 @@ public class CourseController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         } catch (InvalidElaboratoException env) {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Elaborato già revisionato, ancora non consegnato o fuori tempo massimo");
-        } catch (IOException e) {
+        } catch (IOException | ContentStoreException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Permette di caricare in una sola richiesta le revisioni di più elaborati della stessa consegna.
+     * La parte "correzioni" (application/json) è una lista di CorrezioneDTO; il campo file di ogni correzione,
+     * se presente, indica il nome della parte multipart che contiene il file della revisione.
+     * Le correzioni non valide non bloccano le altre: l'esito di ognuna è nella risposta, nello stesso ordine.
+     * @param courseName nome del corso
+     * @param consegnaId ID della consegna
+     * @param correzioni voto e possibileRiconsegna per ogni elaborato
+     * @return esito di ogni correzione
+     * Accessibile ai ruoli: Teacher
+     */
+    @PostMapping(value = "/{courseName}/consegne/{consegnaId}/correzioni", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public List<EsitoCorrezioneDTO> correggiElaborati(@PathVariable String courseName, @PathVariable String consegnaId,
+                                                      @RequestPart("correzioni") List<CorrezioneDTO> correzioni,
+                                                      MultipartHttpServletRequest request) {
+        try {
+            return teamService.correggereElaborati(courseName, Long.parseLong(consegnaId), correzioni, new HashMap<>(request.getFileMap()));
+        } catch (ConsegnaNotFoundException | TeacherNotFoundException | CourseNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } catch (InvalidCourseException | InvalidConsegnaException | InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Il metodo non va a prendere l'immagine dal database come per esempio per l'immagine dei professori o degli studenti
      *  ma dal file system
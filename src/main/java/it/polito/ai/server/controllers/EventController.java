@@ -0,0 +1,32 @@
+package it.polito.ai.server.controllers;
+
+import it.polito.ai.server.services.EventiSse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/API/events")
+public class EventController {
+
+    @Autowired
+    EventiSse eventiSse;
+
+    /**
+     * Apre uno stream Server-Sent Events per l'utente autenticato. Ogni evento "elaborato" contiene un ElaboratoEventDTO:
+     * lo studente riceve le proprie consegne e correzioni, il docente quelle dei suoi corsi.
+     * Gli eventi non arrivati (client lento o disconnesso) si recuperano con le API REST.
+     * @return stream di eventi
+     * Accessibile ai ruoli: Student, Teacher
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events() {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return eventiSse.apri(userDetails.getUsername());
+    }
+}
@@ -5,18 +5,18 @@ import it.polito.ai.server.dtos.*;
 import it.polito.ai.server.entities.VirtualMachine;
 import it.polito.ai.server.services.*;
 import it.polito.ai.server.services.exceptions.*;
-import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.io.*;
-import java.nio.file.Files;
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -31,6 +31,9 @@ public class StudentController {
     @Autowired
     UserDetailsServiceImpl userDetailsServiceImpl;
 
+    @Autowired
+    UploadService uploadService;
+
     /**
      * Ottiene tutti gli studenti
      * @return
@@ -145,12 +148,14 @@ public class StudentController {
     @PostMapping("/{id}/uploadImage")
     public void uploadImage(@PathVariable String id, @RequestBody() MultipartFile file) {
         try {
-            teamService.setImageForStudent(id, ArrayUtils.toObject(file.getBytes()));
+            teamService.setImageForStudent(id, file.getBytes());
         }catch(InvalidStudentException e){
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         }catch(StudentNotFoundException e){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-        }catch(IOException e){
+        }catch(InvalidImageException e){
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+        }catch(IOException | ContentStoreException e){
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
@@ -159,25 +164,41 @@ public class StudentController {
     /**
      * Ottiene l'immagine profilo di uno studente
      * @param id id studente
+     * @param size lato in pixel desiderato (opzionale, di default la dimensione più grande)
      * @return immagine profilo
-     * @throws IOException
      * Accessibile ai ruoli: Student
      */
     @GetMapping(path = {"{id}/getImage"})
-    public byte[] getImage(@PathVariable String id) throws IOException {
+    public byte[] getImage(@PathVariable String id, @RequestParam(required = false) Integer size) {
+        return ContentResponses.base64(image(id, size));
+    }
 
-        Byte[] img = teamService.getImageFromStudent(id);
+    /**
+     * Ottiene l'immagine profilo di uno studente in formato binario (con ETag e supporto a Range)
+     * @param id id studente
+     * @param size lato in pixel desiderato (opzionale, di default la dimensione più grande)
+     * @return immagine profilo
+     * Accessibile ai ruoli: Student
+     */
+    @GetMapping(path = {"{id}/image"})
+    public ResponseEntity<Resource> getImageRaw(@PathVariable String id, @RequestParam(required = false) Integer size) {
+        return ContentResponses.raw(image(id, size));
+    }
 
-        if (img == null) {
-            File resource = new File(
-                    "./src/main/resources/img/userProfile.png");
-            return Base64.getEncoder().encode(ArrayUtils.toPrimitive(ArrayUtils.toObject(Files.readAllBytes(resource.toPath()))));
+    private byte[] image(String id, Integer size) {
+        try {
+            return teamService.getImageFromStudent(id, size);
+        } catch (InvalidStudentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } catch (StudentNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } catch (ContentStoreException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        return Base64.getEncoder().encode(ArrayUtils.toPrimitive(teamService.getImageFromStudent(id)));
-
     }
 
 
+
     /**
      * Ottiene gli elaborati di uno studente per una determinata consegna
      * @param id ID studente
@@ -206,13 +227,25 @@ public class StudentController {
      */
     @GetMapping("/{id}/consegne/{consegnaId}/elaborati/{elaboratoId}")
     public byte[] getElaborato(@PathVariable String id, @PathVariable String consegnaId, @PathVariable String elaboratoId){
+        return ContentResponses.base64(elaborato(id, elaboratoId));
+    }
+
+    /**
+     * Ottiene un elaborato dato il suo ID in formato binario (con ETag e supporto a Range)
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param elaboratoId ID elaborato
+     * @return contenuto dell'elaborato
+     * Accessibile ai ruoli: Student
+     */
+    @GetMapping("/{id}/consegne/{consegnaId}/elaborati/{elaboratoId}/raw")
+    public ResponseEntity<Resource> getElaboratoRaw(@PathVariable String id, @PathVariable String consegnaId, @PathVariable String elaboratoId){
+        return ContentResponses.raw(elaborato(id, elaboratoId));
+    }
+
+    private StoredContent elaborato(String id, String elaboratoId){
         try {
-            Byte[] res = teamService.getElaboratoById(elaboratoId, id);
-            if(res!= null){
-                return Base64.getEncoder().encode(ArrayUtils.toPrimitive(res));
-            }else{
-                return null;
-            }
+            return teamService.getElaboratoById(elaboratoId, id);
         }catch (InvalidUserException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         } catch (ElaboratoNotFoundException e) {
@@ -252,8 +285,24 @@ public class StudentController {
      */
     @GetMapping("/{id}/consegne/{consegnaId}")
     public byte[] getConsegna(@PathVariable String id, @PathVariable String consegnaId) {
+        return ContentResponses.base64(consegna(id, consegnaId));
+    }
+
+    /**
+     * Ottiene una consegna dato il suo ID in formato binario (con ETag e supporto a Range)
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @return contenuto della consegna
+     * Accessibile ai ruoli: Student
+     */
+    @GetMapping("/{id}/consegne/{consegnaId}/raw")
+    public ResponseEntity<Resource> getConsegnaRaw(@PathVariable String id, @PathVariable String consegnaId) {
+        return ContentResponses.raw(consegna(id, consegnaId));
+    }
+
+    private StoredContent consegna(String id, String consegnaId) {
         try {
-            return Base64.getEncoder().encode(ArrayUtils.toPrimitive(teamService.getConsegna(Long.parseLong(consegnaId), id)));
+            return teamService.getConsegna(Long.parseLong(consegnaId), id);
 
         } catch (StudentNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, id);
@@ -278,13 +327,25 @@ public class StudentController {
      */
     @GetMapping("/{id}/consegne/{consegnaId}/correzioni/{elabId}")
     public byte[] leggiCorrezione(@PathVariable String id, @PathVariable String consegnaId, @PathVariable String elabId) {
+        return ContentResponses.base64(correzione(id, consegnaId, elabId));
+    }
+
+    /**
+     * Notifica la lettura di una revisione da parte dello studente e la restituisce in formato binario (con ETag e supporto a Range)
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param elabId ID elaborato
+     * @return contenuto della revisione
+     * Accessibile ai ruoli: Student
+     */
+    @GetMapping("/{id}/consegne/{consegnaId}/correzioni/{elabId}/raw")
+    public ResponseEntity<Resource> leggiCorrezioneRaw(@PathVariable String id, @PathVariable String consegnaId, @PathVariable String elabId) {
+        return ContentResponses.raw(correzione(id, consegnaId, elabId));
+    }
+
+    private StoredContent correzione(String id, String consegnaId, String elabId) {
         try {
-            Byte[] res = teamService.leggiCorrezione(Long.parseLong(consegnaId), id, elabId);
-            if(res!= null){
-                return Base64.getEncoder().encode(ArrayUtils.toPrimitive(res));
-            }else{
-                return null;
-            }
+            return teamService.leggiCorrezione(Long.parseLong(consegnaId), id, elabId);
         }catch (StudentNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, id);
         } catch (InvalidConsegnaException | InvalidStudentException e) {
@@ -307,7 +368,7 @@ public class StudentController {
     @PostMapping("/{id}/consegne/{consegnaId}/elaborati")
     public Boolean consegnaElaborato(@PathVariable String id, @PathVariable String consegnaId, @RequestBody() MultipartFile elaborato) {
         try {
-            return teamService.consegnaElaborato(Long.parseLong(consegnaId), id, ArrayUtils.toObject(elaborato.getBytes()));
+            return teamService.consegnaElaborato(Long.parseLong(consegnaId), id, elaborato.getInputStream());
         } catch (StudentNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, id);
         } catch (InvalidConsegnaException | InvalidStudentException | InvalidElaboratoException e) {
@@ -320,7 +381,114 @@ public class StudentController {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Il file non è stato caricato correttamente");
+        } catch (ContentStoreException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Apre una sessione di caricamento a pezzi per un elaborato. La scadenza viene verificata ora:
+     * la sessione potrà essere completata anche poco dopo la scadenza della consegna.
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param dimensione dimensione totale del file in byte (opzionale)
+     * @return sessione di caricamento con l'offset da cui inviare il primo pezzo
+     * Accessibile ai ruoli: Student
+     */
+    @PostMapping("/{id}/consegne/{consegnaId}/uploads")
+    public UploadSessionDTO apriUpload(@PathVariable String id, @PathVariable Long consegnaId, @RequestParam(required = false) Long dimensione) {
+        try {
+            return uploadService.apriSessione(id, consegnaId, dimensione);
+        } catch (UploadServiceException | TeamServiceException e) {
+            throw uploadException(e);
+        }
+    }
+
+    /**
+     * Invia un pezzo del file (corpo della richiesta in binario) a partire dall'offset indicato
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param uploadId ID della sessione di caricamento
+     * @param offset posizione del pezzo nel file, deve coincidere con i byte già ricevuti
+     * @return sessione di caricamento aggiornata
+     * Accessibile ai ruoli: Student
+     */
+    @PutMapping("/{id}/consegne/{consegnaId}/uploads/{uploadId}")
+    public UploadSessionDTO caricaPezzo(@PathVariable String id, @PathVariable Long consegnaId, @PathVariable String uploadId,
+                                        @RequestParam long offset, HttpServletRequest request) {
+        try {
+            return uploadService.caricaPezzo(id, consegnaId, uploadId, offset, request.getInputStream());
+        } catch (UploadServiceException | TeamServiceException e) {
+            throw uploadException(e);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Il file non è stato caricato correttamente");
+        }
+    }
+
+    /**
+     * Ottiene lo stato di una sessione di caricamento (per riprendere dopo un'interruzione)
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param uploadId ID della sessione di caricamento
+     * @return sessione di caricamento con i byte ricevuti finora
+     * Accessibile ai ruoli: Student
+     */
+    @GetMapping("/{id}/consegne/{consegnaId}/uploads/{uploadId}")
+    public UploadSessionDTO getUpload(@PathVariable String id, @PathVariable Long consegnaId, @PathVariable String uploadId) {
+        try {
+            return uploadService.getSessione(id, consegnaId, uploadId);
+        } catch (UploadServiceException | TeamServiceException e) {
+            throw uploadException(e);
+        }
+    }
+
+    /**
+     * Completa il caricamento a pezzi e consegna l'elaborato
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param uploadId ID della sessione di caricamento
+     * @return booleano sulla riuscita consegna dell'elaborato
+     * Accessibile ai ruoli: Student
+     */
+    @PostMapping("/{id}/consegne/{consegnaId}/uploads/{uploadId}/commit")
+    public Boolean completaUpload(@PathVariable String id, @PathVariable Long consegnaId, @PathVariable String uploadId) {
+        try {
+            return uploadService.completa(id, consegnaId, uploadId);
+        } catch (UploadServiceException | TeamServiceException e) {
+            throw uploadException(e);
+        }
+    }
+
+    /**
+     * Annulla una sessione di caricamento e scarta i byte ricevuti
+     * @param id ID studente
+     * @param consegnaId ID consegna
+     * @param uploadId ID della sessione di caricamento
+     * Accessibile ai ruoli: Student
+     */
+    @DeleteMapping("/{id}/consegne/{consegnaId}/uploads/{uploadId}")
+    public void annullaUpload(@PathVariable String id, @PathVariable Long consegnaId, @PathVariable String uploadId) {
+        try {
+            uploadService.annulla(id, consegnaId, uploadId);
+        } catch (UploadServiceException | TeamServiceException e) {
+            throw uploadException(e);
+        }
+    }
+
+    private ResponseStatusException uploadException(RuntimeException e) {
+        if (e instanceof UploadOffsetMismatchException) {
+            return new ResponseStatusException(HttpStatus.CONFLICT, "Offset non valido: leggere lo stato della sessione e riprendere da lì");
+        } else if (e instanceof UploadTooLargeException) {
+            return new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE);
+        } else if (e instanceof UploadIncompleteException || e instanceof InvalidConsegnaException || e instanceof InvalidElaboratoException) {
+            return new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } else if (e instanceof UploadSessionNotFoundException || e instanceof StudentNotFoundException
+                || e instanceof ConsegnaNotFoundException || e instanceof ElaboratoNotFoundException) {
+            return new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } else if (e instanceof InvalidUserException || e instanceof StudentNotEnrolledException) {
+            return new ResponseStatusException(HttpStatus.FORBIDDEN);
         }
+        return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     /**
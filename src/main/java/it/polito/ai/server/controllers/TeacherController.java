@@ -3,13 +3,16 @@ package it.polito.ai.server.controllers;
 import it.polito.ai.server.dtos.CourseDTO;
 import it.polito.ai.server.dtos.TeacherDTO;
 import it.polito.ai.server.services.*;
+import it.polito.ai.server.services.exceptions.ContentStoreException;
+import it.polito.ai.server.services.exceptions.InvalidImageException;
 import it.polito.ai.server.services.exceptions.InvalidTeacherException;
 import it.polito.ai.server.services.exceptions.InvalidUserException;
 import it.polito.ai.server.services.exceptions.TeacherNotFoundException;
 import it.polito.ai.server.services.exceptions.TeamNotFoundException;
-import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -18,8 +21,6 @@ import org.springframework.web.server.ResponseStatusException;
 import javax.validation.Valid;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -109,12 +110,14 @@ public class TeacherController {
     @PostMapping("/{id}/uploadImage")
     public void uploadImage(@PathVariable String id, @RequestBody() MultipartFile file) {
         try {
-            teamService.setImageForTeacher(id, ArrayUtils.toObject(file.getBytes()));
+            teamService.setImageForTeacher(id, file.getBytes());
         } catch(InvalidTeacherException e){
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
         } catch (TeacherNotFoundException e){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-        } catch (IOException e){
+        } catch (InvalidImageException e){
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+        } catch (IOException | ContentStoreException e){
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
@@ -122,21 +125,37 @@ public class TeacherController {
     /**
      * Ottiene l'immagine di profilo di un docente
      * @param id identificativo docente
+     * @param size lato in pixel desiderato (opzionale, di default la dimensione più grande)
      * @return immagine
-     * @throws IOException
      * Accessibile ai ruoli: Teacher
      */
     @GetMapping(path = {"{id}/getImage"})
-    public byte[] getImage(@PathVariable String id) throws IOException {
+    public byte[] getImage(@PathVariable String id, @RequestParam(required = false) Integer size) {
+        return ContentResponses.base64(image(id, size));
+    }
 
-        Byte[] img = teamService.getImageFromTeacher(id);
+    /**
+     * Ottiene l'immagine di profilo di un docente in formato binario (con ETag e supporto a Range)
+     * @param id identificativo docente
+     * @param size lato in pixel desiderato (opzionale, di default la dimensione più grande)
+     * @return immagine
+     * Accessibile ai ruoli: Teacher
+     */
+    @GetMapping(path = {"{id}/image"})
+    public ResponseEntity<Resource> getImageRaw(@PathVariable String id, @RequestParam(required = false) Integer size) {
+        return ContentResponses.raw(image(id, size));
+    }
 
-        if(img == null){
-            File resource = new File(
-                    "./src/main/resources/img/userProfile.png");
-            return Base64.getEncoder().encode(ArrayUtils.toPrimitive(ArrayUtils.toObject(Files.readAllBytes(resource.toPath()))));
+    private byte[] image(String id, Integer size) {
+        try {
+            return teamService.getImageFromTeacher(id, size);
+        } catch (InvalidTeacherException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        } catch (TeacherNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } catch (ContentStoreException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        return Base64.getEncoder().encode(ArrayUtils.toPrimitive(teamService.getImageFromTeacher(id)));
     }
 }
 
@@ -0,0 +1,18 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CorrezioneDTO {
+
+    private Long elaboratoId;
+    private String voto;
+    //true o false
+    private String possibileRiconsegna;
+    //nome della parte multipart con il file della correzione (opzionale)
+    private String file;
+}
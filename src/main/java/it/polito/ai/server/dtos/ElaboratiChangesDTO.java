@@ -0,0 +1,18 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ElaboratiChangesDTO {
+
+    //elaborati creati dopo il cursore ricevuto, in ordine di creazione
+    private List<ElaboratoForTeacherDTO> elaborati;
+    //da passare come since alla richiesta successiva
+    private Long cursor;
+}
@@ -0,0 +1,22 @@
+package it.polito.ai.server.dtos;
+
+import it.polito.ai.server.services.StoredContent;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+ * Elaborato insieme al suo contenuto: i byte vengono letti solo quando si apre lo stream di contenuto.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ElaboratoContentDTO {
+
+    private Long id;
+    private String studentId;
+    private String stato;
+    private StoredContent contenuto;
+}
@@ -1,11 +1,16 @@
 package it.polito.ai.server.dtos;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.hateoas.RepresentationModel;
 
 import javax.validation.constraints.NotNull;
 import java.sql.Timestamp;
+import java.util.Date;
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 public class ElaboratoDTO extends RepresentationModel<ElaboratoDTO> {
 
     @NotNull
@@ -21,4 +26,10 @@ public class ElaboratoDTO extends RepresentationModel<ElaboratoDTO> {
 
     private String voto;
 
+    /*usato dalle query JPQL: Hibernate tipizza dataCaricamento come java.util.Date*/
+    public ElaboratoDTO(Long id, String stato, Date dataCaricamento, String studentId, String possibileRiconsegna, String voto) {
+        this(id, stato, dataCaricamento == null ? null : new Timestamp(dataCaricamento.getTime()), studentId,
+                possibileRiconsegna, voto);
+    }
+
 }
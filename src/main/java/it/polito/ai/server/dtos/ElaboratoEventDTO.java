@@ -0,0 +1,23 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ElaboratoEventDTO {
+
+    private Long elaboratoId;
+    private Long consegnaId;
+    private String courseName;
+    private String studentId;
+    //CONSEGNATO (consegna dello studente o chiusura alla scadenza) oppure RIVISTO (correzione del docente)
+    private String stato;
+    private Timestamp dataCaricamento;
+}
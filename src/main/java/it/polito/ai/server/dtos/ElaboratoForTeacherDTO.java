@@ -8,6 +8,7 @@ import org.springframework.hateoas.RepresentationModel;
 
 import javax.validation.constraints.NotNull;
 import java.sql.Timestamp;
+import java.util.Date;
 
 @Data
 @Builder
@@ -32,4 +33,11 @@ public class ElaboratoForTeacherDTO extends RepresentationModel<ElaboratoForTeac
 
     private String voto;
 
+    /*usato dalle query JPQL: Hibernate tipizza e.dataCaricamento come java.util.Date*/
+    public ElaboratoForTeacherDTO(Long id, String studentId, String name, String firstName, String stato,
+                                  Date dataCaricamento, String possibileRiconsegna, String voto) {
+        this(id, studentId, name, firstName, stato,
+                dataCaricamento == null ? null : new Timestamp(dataCaricamento.getTime()), possibileRiconsegna, voto);
+    }
+
 }
@@ -0,0 +1,21 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EsitoCorrezioneDTO {
+
+    private Long elaboratoId;
+    private String studentId;
+    private boolean corretto;
+    //id dell'elaborato RIVISTO creato, se la correzione è andata a buon fine
+    private Long revisioneId;
+    //nome dell'eccezione che ha impedito la correzione (es. InvalidVotoException)
+    private String errore;
+}
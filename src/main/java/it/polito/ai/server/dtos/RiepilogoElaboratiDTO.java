@@ -0,0 +1,20 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RiepilogoElaboratiDTO {
+
+    //numero di studenti iscritti per stato corrente (NULL comprende chi non ha ancora aperto la consegna)
+    private Map<String, Long> perStato;
+    //studenti che hanno ricevuto un voto
+    private long valutati;
+    //media dei voti numerici, null se non ce ne sono
+    private Double mediaVoti;
+}
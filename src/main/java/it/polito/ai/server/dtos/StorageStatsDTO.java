@@ -0,0 +1,25 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageStatsDTO {
+
+    private String courseName;
+    //numero di consegne ed elaborati con un contenuto
+    private long contenuti;
+    //byte che occuperebbero i contenuti salvati uno per uno
+    private long dimensioneLogica;
+    //byte effettivamente occupati dai blob distinti
+    private long dimensioneFisica;
+    //dimensioneLogica / dimensioneFisica (1 se non ci sono duplicati)
+    private double rapportoDeduplicazione;
+    //byte occupati su disco dopo la compressione
+    private long dimensioneSuDisco;
+    //dimensioneFisica / dimensioneSuDisco (1 se nessun contenuto è stato compresso)
+    private double rapportoCompressione;
+}
@@ -0,0 +1,24 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionDTO {
+
+    private String id;
+    private Long consegnaId;
+    //byte già ricevuti: il prossimo pezzo va inviato con questo offset
+    private long offset;
+    private Long dimensione;
+    private Timestamp inizio;
+    //oltre questo istante la sessione non può più essere completata
+    private Timestamp completabileFino;
+}
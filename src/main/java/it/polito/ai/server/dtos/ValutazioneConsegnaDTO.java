@@ -0,0 +1,16 @@
+package it.polito.ai.server.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ValutazioneConsegnaDTO {
+
+    private List<ElaboratoForTeacherDTO> elaborati;
+    private RiepilogoElaboratiDTO riepilogo;
+}
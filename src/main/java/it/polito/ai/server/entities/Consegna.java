@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@Table(indexes = @Index(name = "idx_consegna_chiusa_scadenza", columnList = "chiusa, scadenza"))
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
@@ -23,18 +24,30 @@ public class Consegna {
 
     private String nomeConsegna;
 
-    @Lob
-    @Column(columnDefinition = "LONGBLOB", name = "contenuto")
-    private Byte[] contenuto;
+    @Embedded
+    private ContentRef contenuto;
 
     @ManyToOne
     @JoinColumn(name = "course_name")
     private Course course;
 
     private Timestamp rilascio;
+
+    @Column(name = "scadenza")
     private Timestamp scadenza;
 
-    @OneToMany(mappedBy = "consegna", cascade = CascadeType.REMOVE, fetch = FetchType.EAGER)
+    /*
+     * diventa true una sola volta, quando alla scadenza gli elaborati non consegnati vengono chiusi.
+     * È null solo per le consegne create prima della sua introduzione, finché ScadenzeConsegne non le segna come aperte all'avvio
+     */
+    @Column(name = "chiusa")
+    private Boolean chiusa;
+
+    //lo storico superato degli elaborati è stato spostato in ElaboratoArchiviato
+    @Column(name = "archiviata")
+    private boolean archiviata;
+
+    @OneToMany(mappedBy = "consegna", cascade = CascadeType.REMOVE)
     private List<Elaborato> elaborati = new ArrayList<>();
 
     public void setCourse(Course course){
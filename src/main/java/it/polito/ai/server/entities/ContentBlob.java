@@ -0,0 +1,41 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/*
+ * Un contenuto fisico del ContentStore, identificato dal suo SHA-256.
+ * Più elaborati/consegne con gli stessi byte puntano allo stesso blob: refCount conta quanti riferimenti esistono.
+ */
+@Entity
+@Table(name = "content_blob", indexes = @Index(columnList = "ref_count, released_at"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentBlob {
+
+    @Id
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    //dimensione dei byte originali
+    @Column(name = "size")
+    private long size;
+
+    //byte occupati su disco (minore di size se il blob è stato compresso)
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    @Column(name = "ref_count")
+    private int refCount;
+
+    //momento in cui il blob è rimasto senza riferimenti: il garbage collector lo cancella solo dopo un periodo di grazia
+    @Column(name = "released_at")
+    private Timestamp releasedAt;
+}
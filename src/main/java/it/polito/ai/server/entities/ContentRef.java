@@ -0,0 +1,34 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+/*
+ * Riferimento ad un contenuto binario salvato nel ContentStore.
+ * Nella riga dell'entità restano solo chiave, dimensione e hash: i byte stanno fuori dal database.
+ */
+@Embeddable
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentRef {
+
+    @Column(name = "content_key")
+    private String contentKey;
+
+    @Column(name = "content_size")
+    private Long size;
+
+    @Column(name = "content_sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+}
@@ -13,6 +13,10 @@ import java.sql.Timestamp;
 @AllArgsConstructor
 @Data
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_elaborato_consegna_student_data", columnList = "consegna_id, student_id, data_caricamento"),
+        @Index(name = "idx_elaborato_consegna_id", columnList = "consegna_id, id")
+})
 public class Elaborato {
 
     @Id
@@ -21,9 +25,8 @@ public class Elaborato {
 
     private String stato;
 
-    @Lob
-    @Column(columnDefinition = "LONGBLOB")
-    private Byte[] contenuto;
+    @Embedded
+    private ContentRef contenuto;
 
     @ManyToOne
     @JoinColumn(name = "consegna_id")
@@ -33,6 +36,7 @@ public class Elaborato {
     @JoinColumn(name = "student_id")
     private Student student;
 
+    @Column(name = "data_caricamento")
     private Timestamp dataCaricamento;
 
     //Flag che indica se dopo la correzione è possibile ricaricare un nuovo elaborato
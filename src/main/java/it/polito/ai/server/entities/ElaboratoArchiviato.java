@@ -0,0 +1,60 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/*
+ * Storico superato degli elaborati delle consegne chiuse da tempo, spostato qui da ArchivioElaborati.
+ * Nella tabella elaborato restano solo l'ultimo elaborato e l'ultima revisione di ogni studente;
+ * le righe conservano l'id originale, quindi i riferimenti già dati ai client restano validi.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Entity
+@Table(name = "elaborato_archiviato", indexes = @Index(name = "idx_elaborato_archiviato_consegna_student", columnList = "consegna_id, student_id"))
+public class ElaboratoArchiviato {
+
+    @Id
+    private Long id;
+
+    private String stato;
+
+    @Embedded
+    private ContentRef contenuto;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "consegna_id")
+    private Consegna consegna;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "student_id")
+    private Student student;
+
+    @Column(name = "data_caricamento")
+    private Timestamp dataCaricamento;
+
+    private String possibileRiconsegna;
+
+    private String voto;
+
+    /*copia in sola lettura per i percorsi che lavorano su Elaborato: non va mai salvata*/
+    public Elaborato toElaborato() {
+        return Elaborato.builder()
+                .id(id)
+                .stato(stato)
+                .contenuto(contenuto)
+                .consegna(consegna)
+                .student(student)
+                .dataCaricamento(dataCaricamento)
+                .possibileRiconsegna(possibileRiconsegna)
+                .voto(voto)
+                .build();
+    }
+}
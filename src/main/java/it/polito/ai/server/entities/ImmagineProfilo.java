@@ -0,0 +1,35 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/*
+ * Una miniatura PNG dell'immagine profilo di un utente (studente o docente) a una certa dimensione.
+ * I byte stanno nel ContentStore, così le righe di Student e Teacher contengono solo i dati anagrafici.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "dimensione"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImmagineProfilo {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(name = "user_id")
+    private String userId;
+
+    //lato massimo in pixel
+    @Column(name = "dimensione")
+    private int dimensione;
+
+    @Embedded
+    private ContentRef contenuto;
+}
@@ -5,9 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import javax.persistence.Entity;
-import javax.persistence.Id;
-import javax.persistence.OneToOne;
+import javax.persistence.*;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotEmpty;
 import java.sql.Timestamp;
@@ -17,9 +15,11 @@ import java.sql.Timestamp;
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
+@Table(indexes = @Index(name = "idx_registration_token_expiry_date", columnList = "expiry_date"))
 public class RegistrationToken {
     @Id
     private String id;
+    @Column(name = "expiry_date")
     private Timestamp expiryDate;
     @NotEmpty
     private String userId;
@@ -0,0 +1,71 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/*
+ * Stato corrente della coppia (consegna, studente): riassume l'ultimo elaborato dello storico,
+ * così per sapere a che punto è uno studente non serve leggere e ordinare tutti i suoi elaborati.
+ * Viene aggiornato nella stessa transazione in cui si salva ogni nuovo Elaborato.
+ * Se la riga non esiste lo studente non ha ancora mai aperto la consegna: lo stato è implicitamente NULL.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"consegna_id", "student_id"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatoElaborato {
+
+    //chiave naturale "consegnaId/studentId": permette di creare la riga con INSERT IGNORE senza passare dal generatore di id
+    @Id
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "consegna_id")
+    private Consegna consegna;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "student_id")
+    private Student student;
+
+    //stato dell'ultimo elaborato (NULL, LETTO, CONSEGNATO, RIVISTO)
+    private String stato;
+
+    private Long ultimoElaboratoId;
+
+    private Timestamp dataCaricamento;
+
+    //voto e possibileRiconsegna dell'ultima revisione del docente
+    private String voto;
+    private String possibileRiconsegna;
+
+    private Long ultimaRevisioneId;
+
+    public static String chiave(Long consegnaId, String studentId) {
+        return consegnaId + "/" + studentId;
+    }
+
+    /*
+     * Registra un nuovo elaborato. Un elaborato più vecchio dell'ultimo registrato non fa mai tornare indietro lo stato
+     * (l'elaborato NULL creato dopo una revisione ha una data nel futuro, quindi l'ordine non è quello di inserimento).
+     */
+    public void aggiorna(Elaborato elaborato) {
+        if (dataCaricamento != null && elaborato.getDataCaricamento().before(dataCaricamento)) {
+            return;
+        }
+        stato = elaborato.getStato();
+        ultimoElaboratoId = elaborato.getId();
+        dataCaricamento = elaborato.getDataCaricamento();
+        if ("RIVISTO".equals(elaborato.getStato())) {
+            voto = elaborato.getVoto();
+            possibileRiconsegna = elaborato.getPossibileRiconsegna();
+            ultimaRevisioneId = elaborato.getId();
+        }
+    }
+}
@@ -19,9 +19,6 @@ public class Student {
     private String id;
     private String name; /*lastName*/
     private String firstName;
-    @Lob
-    @Column(columnDefinition = "LONGBLOB", name = "image")
-    private Byte[] image;
 
     @OneToMany(mappedBy="student")
     private List<Token> tokens;
@@ -35,7 +32,7 @@ public class Student {
     @ManyToMany(mappedBy = "members")
     private List<Team> teams= new ArrayList<>();
 
-    @OneToMany(mappedBy = "student", fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "student")
     private  List<Elaborato> elaborati = new ArrayList<>();
 
     @ManyToMany(mappedBy = "owners")
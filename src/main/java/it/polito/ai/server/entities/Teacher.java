@@ -19,9 +19,6 @@ public class Teacher {
     private String id;
     private String name; /*lastName*/
     private String firstName;
-    @Lob
-    @Column(columnDefinition = "LONGBLOB")
-    private Byte[] image;
 
 
 
@@ -16,6 +16,10 @@ public class Team {
     private int status;
     private String proponenteId;
 
+    //membri che non hanno ancora confermato la proposta: quando arriva a 0 il team diventa attivo
+    @Column(name = "pending_confirmations")
+    private int pendingConfirmations;
+
     @ManyToOne
     @JoinColumn(name="course_id")
     private Course course;
@@ -13,10 +13,12 @@ import java.sql.Timestamp;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@Table(indexes = @Index(name = "idx_token_expiry_date", columnList = "expiry_date"))
 public class Token {
     @Id
     private String id;
     private Long teamId;
+    @Column(name = "expiry_date")
     private Timestamp expiryDate;
 
     @ManyToOne
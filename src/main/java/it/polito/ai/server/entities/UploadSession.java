@@ -0,0 +1,44 @@
+package it.polito.ai.server.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/*
+ * Caricamento a pezzi (resumable) di un elaborato.
+ * I byte ricevuti finora stanno in un file temporaneo su disco; offset indica quanti ne sono arrivati.
+ * La scadenza della consegna viene controllata rispetto a inizio, non al momento del commit.
+ */
+@Entity
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+
+    @Id
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "student_id")
+    private Student student;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "consegna_id")
+    private Consegna consegna;
+
+    private Timestamp inizio;
+
+    private Timestamp ultimaAttivita;
+
+    //numero di byte già ricevuti: il prossimo pezzo deve iniziare da qui
+    @Column(name = "ricevuti")
+    private long offset;
+
+    //dimensione totale dichiarata dal client all'apertura (opzionale)
+    private Long dimensione;
+}
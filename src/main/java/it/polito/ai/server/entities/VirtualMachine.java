@@ -4,7 +4,6 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.apache.commons.lang3.ArrayUtils;
 
 import javax.persistence.*;
 import java.io.File;
@@ -30,7 +29,7 @@ public class VirtualMachine {
 
 
     @Transient
-    private Byte[] screenshot;
+    private byte[] screenshot;
 
 
     private boolean attiva = false;
@@ -76,27 +75,27 @@ public class VirtualMachine {
         }
     }
 
-    public Byte[] getScreen() throws IOException {
+    public byte[] getScreen() throws IOException {
 
         if(screenshot == null){
            /* File resource2 = new ClassPathResource(
                     "./pom.xml").getFile();*/
             File resource = new File(
                     "./src/main/resources/img/vm.png");
-            screenshot = ArrayUtils.toObject(Files.readAllBytes(resource.toPath()));
+            screenshot = Files.readAllBytes(resource.toPath());
         }
 
         return screenshot;
     }
 
-    public Byte[] attivaVM() throws IOException {
+    public byte[] attivaVM() throws IOException {
         attiva = true;
         if(screenshot == null){
            /* File resource2 = new ClassPathResource(
                     "./pom.xml").getFile();*/
             File resource = new File(
                     "./src/main/resources/img/vm.png");
-            screenshot = ArrayUtils.toObject(Files.readAllBytes(resource.toPath()));
+            screenshot = Files.readAllBytes(resource.toPath());
         }
         return screenshot;
     }
@@ -3,6 +3,7 @@ package it.polito.ai.server.repositories;
 import it.polito.ai.server.entities.Consegna;
 import it.polito.ai.server.entities.Course;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -13,11 +14,39 @@ import java.util.List;
 public interface ConsegnaRepository extends JpaRepository<Consegna, Long> {
 
 
-    List<Consegna> findAllByScadenzaBefore(Timestamp t); //per selezionare quelli scaduti
+    /*
+     * consegne create prima dell'introduzione di "chiusa": diventano aperte e vengono chiuse una volta dalla coda
+     * delle scadenze (subito se già scadute), che aggiunge CONSEGNATO solo a chi è ancora in LETTO o NULL
+     */
+    @Modifying
+    @Query("UPDATE Consegna c SET c.chiusa = false WHERE c.chiusa IS NULL")
+    int segnaAperteLegacy();
+
+    /*id e scadenza delle consegne ancora da chiudere, per ricostruire all'avvio le scadenze da attendere*/
+    @Query("SELECT c.id, c.scadenza FROM Consegna c WHERE c.chiusa = false")
+    List<Object[]> getScadenzeAperte();
+
+    /*restituisce 0 se la consegna è già stata chiusa (o cancellata): la chiusura avviene una volta sola*/
+    @Modifying
+    @Query("UPDATE Consegna c SET c.chiusa = true WHERE c.id = :consegnaId AND c.chiusa = false")
+    int chiudi(Long consegnaId);
+
+    @Query("SELECT c.id FROM Consegna c WHERE c.chiusa = true AND c.archiviata = false AND c.scadenza < :limite")
+    List<Long> getDaArchiviare(Timestamp limite);
+
+    @Modifying
+    @Query("UPDATE Consegna c SET c.archiviata = true WHERE c.id = :consegnaId")
+    int segnaArchiviata(Long consegnaId);
 
     @Query("SELECT c FROM Consegna c INNER JOIN c.course course INNER JOIN course.students student WHERE course.name=:courseName AND student.id =:studentId")
     List<Consegna> getConsegneByStudentAndCourse(String studentId, String courseName);
 
     List<Consegna> getConsegnasByCourse(Course course);
 
+    @Query("SELECT COUNT(c.contenuto.contentKey) FROM Consegna c WHERE c.course.name = :courseName")
+    long countContenutiForCourse(String courseName);
+
+    @Query("SELECT COALESCE(SUM(c.contenuto.size), 0) FROM Consegna c WHERE c.course.name = :courseName")
+    long getLogicalSizeForCourse(String courseName);
+
 }
@@ -0,0 +1,44 @@
+package it.polito.ai.server.repositories;
+
+import it.polito.ai.server.entities.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    /*non sovrascrive mai un blob già esistente (a differenza di save, che farebbe una merge)*/
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO content_blob (sha256, size, stored_size, ref_count, released_at) VALUES (:sha256, :size, :storedSize, 0, :now)", nativeQuery = true)
+    int insertIfAbsent(String sha256, long size, long storedSize, Timestamp now);
+
+    @Modifying
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + 1 WHERE b.sha256 = :sha256")
+    int acquire(String sha256);
+
+    @Modifying
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount - 1, b.releasedAt = :now WHERE b.sha256 = :sha256 AND b.refCount > 0")
+    int release(String sha256, Timestamp now);
+
+    @Query("SELECT b.sha256 FROM ContentBlob b WHERE b.refCount = 0 AND b.releasedAt < :limit")
+    List<String> findUnreferenced(Timestamp limit);
+
+    /*cancella il blob solo se nel frattempo nessuno ha acquisito un nuovo riferimento*/
+    @Modifying
+    @Query("DELETE FROM ContentBlob b WHERE b.sha256 = :sha256 AND b.refCount = 0 AND b.releasedAt < :limit")
+    int deleteUnreferenced(String sha256, Timestamp limit);
+
+    @Query("SELECT COALESCE(SUM(b.size), 0) FROM ContentBlob b WHERE b.sha256 IN (SELECT e.contenuto.contentKey FROM Elaborato e WHERE e.consegna.course.name = :courseName) " +
+            "OR b.sha256 IN (SELECT c.contenuto.contentKey FROM Consegna c WHERE c.course.name = :courseName)")
+    long getPhysicalSizeForCourse(String courseName);
+
+    /*i blob salvati prima dell'introduzione della compressione non hanno stored_size: occupano size byte*/
+    @Query("SELECT COALESCE(SUM(COALESCE(b.storedSize, b.size)), 0) FROM ContentBlob b WHERE b.sha256 IN (SELECT e.contenuto.contentKey FROM Elaborato e WHERE e.consegna.course.name = :courseName) " +
+            "OR b.sha256 IN (SELECT c.contenuto.contentKey FROM Consegna c WHERE c.course.name = :courseName)")
+    long getStoredSizeForCourse(String courseName);
+}
@@ -0,0 +1,39 @@
+package it.polito.ai.server.repositories;
+
+import it.polito.ai.server.dtos.ElaboratoForTeacherDTO;
+import it.polito.ai.server.entities.ElaboratoArchiviato;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ElaboratoArchiviatoRepository extends JpaRepository<ElaboratoArchiviato, Long> {
+
+    /*
+     * Copia nell'archivio, con lo stesso id, gli elaborati della consegna superati da uno più recente:
+     * restano fuori l'ultimo elaborato e l'ultima revisione di ogni studente (quelli indicati da StatoElaborato).
+     */
+    @Modifying
+    @Query(value = "INSERT INTO elaborato_archiviato (id, stato, content_key, content_size, content_sha256, content_type, " +
+            "consegna_id, student_id, data_caricamento, possibile_riconsegna, voto) " +
+            "SELECT e.id, e.stato, e.content_key, e.content_size, e.content_sha256, e.content_type, " +
+            "e.consegna_id, e.student_id, e.data_caricamento, e.possibile_riconsegna, e.voto FROM elaborato e " +
+            "WHERE e.consegna_id = :consegnaId AND EXISTS (SELECT 1 FROM stato_elaborato s " +
+            "WHERE s.consegna_id = e.consegna_id AND s.student_id = e.student_id AND s.ultimo_elaborato_id <> e.id " +
+            "AND (s.ultima_revisione_id IS NULL OR s.ultima_revisione_id <> e.id))", nativeQuery = true)
+    int archivia(Long consegnaId);
+
+    List<ElaboratoArchiviato> findAllByConsegnaIdAndStudentId(Long consegnaId, String studentId);
+
+    List<ElaboratoArchiviato> findAllByConsegnaCourseName(String courseName);
+
+    List<ElaboratoArchiviato> findAllByConsegnaCourseNameAndStudentId(String courseName, String studentId);
+
+    @Query("SELECT new it.polito.ai.server.dtos.ElaboratoForTeacherDTO(e.id, s.id, s.name, s.firstName, e.stato, " +
+            "e.dataCaricamento, e.possibileRiconsegna, e.voto) " +
+            "FROM ElaboratoArchiviato e JOIN e.student s WHERE e.consegna.id = :consegnaId AND (:stato IS NULL OR e.stato = :stato)")
+    List<ElaboratoForTeacherDTO> getElaboratiForTeacher(Long consegnaId, String stato);
+}
@@ -1,22 +1,95 @@
 package it.polito.ai.server.repositories;
 
 
+import it.polito.ai.server.dtos.ElaboratoDTO;
+import it.polito.ai.server.dtos.ElaboratoForTeacherDTO;
 import it.polito.ai.server.entities.Consegna;
 import it.polito.ai.server.entities.Course;
 import it.polito.ai.server.entities.Elaborato;
 import it.polito.ai.server.entities.Student;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ElaboratoRepository extends JpaRepository<Elaborato, Long> {
 
     List<Elaborato> findAllByConsegnaAndStudent(Consegna consegna, Student student);
-    @Query("SELECT e FROM Elaborato e INNER JOIN e.consegna c INNER JOIN c.course course WHERE course.name=:courseName AND c.id =:consegnaId")
-    List<Elaborato> getElaboratiByConsegnaAndCourse(Long consegnaId, String courseName);
+
+    /*
+     * Storico degli elaborati di una consegna con i dati dello studente già nella riga, eventualmente solo per uno stato.
+     * Gli iscritti che non hanno ancora nessun elaborato compaiono con lo stato NULL implicito (id nullo, data di rilascio).
+     */
+    @Query("SELECT new it.polito.ai.server.dtos.ElaboratoForTeacherDTO(e.id, s.id, s.name, s.firstName, COALESCE(e.stato, 'NULL'), " +
+            "COALESCE(e.dataCaricamento, c.rilascio), COALESCE(e.possibileRiconsegna, '-'), COALESCE(e.voto, '-')) " +
+            "FROM Consegna c JOIN c.course course JOIN course.students s " +
+            "LEFT JOIN Elaborato e ON e.consegna = c AND e.student = s " +
+            "WHERE c.id = :consegnaId AND course.name = :courseName AND (:stato IS NULL OR COALESCE(e.stato, 'NULL') = :stato) " +
+            "ORDER BY s.id, e.dataCaricamento, e.id")
+    List<ElaboratoForTeacherDTO> getElaboratiForTeacher(Long consegnaId, String courseName, String stato);
+
+    /*da chiamare dopo ElaboratoArchiviatoRepository.archivia: toglie dalla tabella le righe copiate nell'archivio*/
+    @Modifying
+    @Query(value = "DELETE FROM elaborato WHERE consegna_id = :consegnaId " +
+            "AND id IN (SELECT a.id FROM elaborato_archiviato a WHERE a.consegna_id = :consegnaId)", nativeQuery = true)
+    int deleteArchiviati(Long consegnaId);
+
+    @Query("SELECT e FROM Elaborato e JOIN FETCH e.student WHERE e.consegna.id = :consegnaId AND e.id IN :ids")
+    List<Elaborato> getElaboratiWithStudent(Long consegnaId, Collection<Long> ids);
+
+    /*elaborati creati dopo l'elaborato con id since (gli id crescono con l'inserimento), sull'indice (consegna_id, id)*/
+    @Query("SELECT new it.polito.ai.server.dtos.ElaboratoForTeacherDTO(e.id, s.id, s.name, s.firstName, e.stato, " +
+            "e.dataCaricamento, e.possibileRiconsegna, e.voto) " +
+            "FROM Elaborato e JOIN e.consegna c JOIN e.student s " +
+            "WHERE c.id = :consegnaId AND c.course.name = :courseName AND e.id > :since AND (:stato IS NULL OR e.stato = :stato) " +
+            "ORDER BY e.id")
+    List<ElaboratoForTeacherDTO> getElaboratiForTeacherSince(Long consegnaId, String courseName, Long since, String stato);
+
+    /*numero di elaborati e id più alto: cambiano ogni volta che lo storico della consegna cambia*/
+    @Query("SELECT COUNT(e), MAX(e.id) FROM Elaborato e WHERE e.consegna.id = :consegnaId")
+    List<Object[]> getVersione(Long consegnaId);
     @Query("SELECT e FROM Elaborato e INNER JOIN e.consegna c INNER JOIN c.course course INNER JOIN e.student student WHERE course.name=:courseName AND c.id =:consegnaId AND student.id=:studentId")
     List<Elaborato> getElaboratiByConsegnaAndCourseAndStudentId(Long consegnaId, String courseName, String studentId);
+
+    /*
+     * Ultimo elaborato di ogni studente iscritto per una consegna, preso dall'ultimoElaboratoId di StatoElaborato:
+     * al massimo una riga per studente anche se due elaborati hanno la stessa dataCaricamento.
+     * Gli iscritti che non hanno ancora nessun elaborato compaiono con lo stato NULL implicito (id nullo, data di rilascio).
+     */
+    @Query(value = "SELECT new it.polito.ai.server.dtos.ElaboratoDTO(e.id, COALESCE(e.stato, 'NULL'), COALESCE(e.dataCaricamento, c.rilascio), " +
+            "s.id, COALESCE(e.possibileRiconsegna, '-'), COALESCE(e.voto, '-')) " +
+            "FROM Consegna c JOIN c.course course JOIN course.students s " +
+            "LEFT JOIN StatoElaborato st ON st.consegna = c AND st.student = s " +
+            "LEFT JOIN Elaborato e ON e.id = st.ultimoElaboratoId " +
+            "WHERE c.id = :consegnaId AND course.name = :courseName " +
+            "ORDER BY s.id",
+            countQuery = "SELECT COUNT(s) FROM Consegna c JOIN c.course course JOIN course.students s " +
+                    "WHERE c.id = :consegnaId AND course.name = :courseName")
+    Page<ElaboratoDTO> getUltimiElaborati(Long consegnaId, String courseName, Pageable pageable);
+
+    /*un solo elaborato per studente: i nomi delle voci dello zip restano univoci*/
+    @Query("SELECT e FROM StatoElaborato st JOIN Elaborato e ON e.id = st.ultimoElaboratoId " +
+            "WHERE st.consegna.id = :consegnaId AND st.consegna.course.name = :courseName " +
+            "ORDER BY st.student.id")
+    List<Elaborato> getUltimiElaboratiEntities(Long consegnaId, String courseName);
+
+    /*consegne con almeno una coppia (consegna, studente) che ha elaborati ma non ha ancora una riga StatoElaborato*/
+    @Query("SELECT DISTINCT e.consegna.id FROM Elaborato e WHERE NOT EXISTS (SELECT s FROM StatoElaborato s WHERE s.consegna = e.consegna AND s.student = e.student)")
+    List<Long> getConsegneWithoutStato();
+
+    /*storico (in ordine cronologico) delle coppie della consegna che non hanno ancora una riga StatoElaborato*/
+    @Query("SELECT e FROM Elaborato e WHERE e.consegna.id = :consegnaId AND NOT EXISTS (SELECT s FROM StatoElaborato s WHERE s.consegna = e.consegna AND s.student = e.student) ORDER BY e.dataCaricamento, e.id")
+    List<Elaborato> findAllWithoutStato(Long consegnaId);
+
+    @Query("SELECT COUNT(e.contenuto.contentKey) FROM Elaborato e WHERE e.consegna.course.name = :courseName")
+    long countContenutiForCourse(String courseName);
+
+    @Query("SELECT COALESCE(SUM(e.contenuto.size), 0) FROM Elaborato e WHERE e.consegna.course.name = :courseName")
+    long getLogicalSizeForCourse(String courseName);
 }
@@ -0,0 +1,16 @@
+package it.polito.ai.server.repositories;
+
+import it.polito.ai.server.entities.ImmagineProfilo;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ImmagineProfiloRepository extends JpaRepository<ImmagineProfilo, Long> {
+
+    Optional<ImmagineProfilo> findByUserIdAndDimensione(String userId, int dimensione);
+
+    List<ImmagineProfilo> findAllByUserId(String userId);
+}
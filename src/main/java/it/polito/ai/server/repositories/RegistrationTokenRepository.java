@@ -3,6 +3,8 @@ package it.polito.ai.server.repositories;
 import it.polito.ai.server.entities.RegistrationToken;
 import it.polito.ai.server.entities.Token;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.sql.Timestamp;
@@ -11,4 +13,8 @@ import java.util.List;
 @Repository
 public interface RegistrationTokenRepository extends JpaRepository<RegistrationToken, String> {
     List<RegistrationToken> findAllByExpiryDateBefore(Timestamp timestamp);
+
+    @Modifying
+    @Query("DELETE FROM RegistrationToken t WHERE t.expiryDate < :istante")
+    int deleteScaduti(Timestamp istante);
 }
@@ -0,0 +1,56 @@
+package it.polito.ai.server.repositories;
+
+import it.polito.ai.server.entities.StatoElaborato;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StatoElaboratoRepository extends JpaRepository<StatoElaborato, String> {
+
+    /*blocca la riga: due transizioni contemporanee per lo stesso studente vengono serializzate*/
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StatoElaborato s WHERE s.consegna.id = :consegnaId AND s.student.id = :studentId")
+    Optional<StatoElaborato> findForUpdate(Long consegnaId, String studentId);
+
+    Optional<StatoElaborato> findByConsegnaIdAndStudentId(Long consegnaId, String studentId);
+
+    /*rende esplicito lo stato NULL implicito; se due richieste arrivano insieme la seconda attende la prima e poi non fa nulla*/
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO stato_elaborato (id, consegna_id, student_id, stato) VALUES (:id, :consegnaId, :studentId, 'NULL')", nativeQuery = true)
+    int insertIfAbsent(String id, Long consegnaId, String studentId);
+
+    /*crea in un solo statement le righe NULL implicite di tutti gli iscritti che non hanno ancora uno stato*/
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO stato_elaborato (id, consegna_id, student_id, stato) " +
+            "SELECT CONCAT(c.id, '/', sc.student_id), c.id, sc.student_id, 'NULL' FROM consegna c " +
+            "JOIN student_course sc ON sc.course_name = c.course_name WHERE c.id = :consegnaId", nativeQuery = true)
+    int insertMancanti(Long consegnaId);
+
+    /*numero di studenti per (stato corrente, voto): pochi gruppi, da cui si ricava il riepilogo della consegna*/
+    @Query("SELECT s.stato, s.voto, COUNT(s) FROM StatoElaborato s WHERE s.consegna.id = :consegnaId GROUP BY s.stato, s.voto")
+    List<Object[]> getConteggiStatoVoto(Long consegnaId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StatoElaborato s WHERE s.consegna.id = :consegnaId AND s.stato IN :stati")
+    List<StatoElaborato> findAllForUpdate(Long consegnaId, Collection<String> stati);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StatoElaborato s WHERE s.consegna.id = :consegnaId AND s.student.id IN :studentIds")
+    List<StatoElaborato> findAllForUpdateByStudentIds(Long consegnaId, Collection<String> studentIds);
+
+    @Modifying
+    @Query("DELETE FROM StatoElaborato s WHERE s.consegna IN (SELECT c FROM Consegna c WHERE c.course.name = :courseName)")
+    int deleteAllByCourse(String courseName);
+
+    @Modifying
+    @Query("DELETE FROM StatoElaborato s WHERE s.student.id = :studentId AND s.consegna IN (SELECT c FROM Consegna c WHERE c.course.name = :courseName)")
+    int deleteAllByCourseAndStudent(String courseName, String studentId);
+}
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,5 +18,21 @@ public interface StudentRepository extends JpaRepository<Student, String> {
 
     public List<Student> getByCoursesNotContaining(Course course);
 
+    boolean existsByIdAndCoursesName(String id, String courseName);
+
+    /*true se la consegna esiste e lo studente è iscritto al suo corso*/
+    boolean existsByIdAndCoursesConsegneId(String id, Long consegnaId);
+
+    long countByCoursesName(String courseName);
+
+    /*
+     * per ogni id esistente tra quelli indicati: id e numero di iscrizioni al corso (0 o 1).
+     * Gli id che non compaiono non esistono.
+     */
+    @Query("SELECT s.id, " +
+            "(SELECT COUNT(c) FROM Course c JOIN c.students cs WHERE c.name = :courseName AND cs = s) " +
+            "FROM Student s WHERE s.id IN :studentIds")
+    List<Object[]> getValidazioneMembri(String courseName, Collection<String> studentIds);
+
 
 }
@@ -4,8 +4,11 @@ import it.polito.ai.server.entities.Course;
 import it.polito.ai.server.entities.Student;
 import it.polito.ai.server.entities.Team;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,5 +20,53 @@ public interface TeamRepository extends JpaRepository<Team, Long> {
 
      List<Team> getAllByCourseEquals(Course course);
 
+     /*team con corso e membri caricati nella stessa query*/
+     @Query("SELECT DISTINCT team FROM Team team JOIN FETCH team.course LEFT JOIN FETCH team.members WHERE team.id IN :ids")
+     List<Team> getTeamsWithMembers(Collection<Long> ids);
+
+     /*restituisce 0 se il team non esiste più o se non c'è più nessuna conferma in attesa*/
+     @Modifying
+     @Query("UPDATE Team t SET t.pendingConfirmations = t.pendingConfirmations - 1 WHERE t.id = :teamId AND t.pendingConfirmations > 0")
+     int decrementaConferme(Long teamId);
+
+     /*
+      * restituisce 1 solo alla transazione che ha portato a 0 le conferme in attesa: il decremento precedente
+      * tiene il lock sulla riga del team fino al commit, quindi le conferme dello stesso team sono serializzate
+      */
+     @Modifying
+     @Query("UPDATE Team t SET t.status = 1 WHERE t.id = :teamId AND t.status = 0 AND t.pendingConfirmations = 0")
+     int attivaSeConfermato(Long teamId);
+
+     /*contatore delle proposte create prima della sua introduzione, ricavato dai token ancora in attesa*/
+     @Modifying
+     @Query(value = "UPDATE team t SET t.pending_confirmations = (SELECT COUNT(*) FROM token k WHERE k.team_id = t.id) " +
+             "WHERE t.status = 0 AND t.pending_confirmations = 0 AND EXISTS (SELECT 1 FROM token k WHERE k.team_id = t.id)", nativeQuery = true)
+     int inizializzaConferme();
+
+     /*una riga per ogni coppia (team, membro): id, corso, nome, stato e proponente del team, id del membro*/
+     @Query("SELECT t.id, t.course.name, t.name, t.status, t.proponenteId, m.id FROM Team t LEFT JOIN t.members m")
+     List<Object[]> getTeamsConMembri();
+
+     /*
+      * eliminazione di un insieme di team con istruzioni bulk, nell'ordine imposto dalle chiavi esterne:
+      * proprietari delle vm, vm, membri e infine i team
+      */
+     @Modifying
+     @Query(value = "DELETE FROM student_vm WHERE virtual_machine_id IN " +
+             "(SELECT vm.id FROM virtual_machine vm WHERE vm.team_id IN :teamIds)", nativeQuery = true)
+     int deleteOwnersByTeamIds(Collection<Long> teamIds);
+
+     @Modifying
+     @Query(value = "DELETE FROM virtual_machine WHERE team_id IN :teamIds", nativeQuery = true)
+     int deleteVirtualMachinesByTeamIds(Collection<Long> teamIds);
+
+     @Modifying
+     @Query(value = "DELETE FROM team_student WHERE team_id IN :teamIds", nativeQuery = true)
+     int deleteMembersByTeamIds(Collection<Long> teamIds);
+
+     @Modifying
+     @Query("DELETE FROM Team t WHERE t.id IN :teamIds")
+     int deleteAllByIds(Collection<Long> teamIds);
+
 
 }
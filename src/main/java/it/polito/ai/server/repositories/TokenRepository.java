@@ -3,10 +3,13 @@ package it.polito.ai.server.repositories;
 import it.polito.ai.server.entities.Student;
 import it.polito.ai.server.entities.Token;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 ;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -16,4 +19,29 @@ public interface TokenRepository extends JpaRepository <Token, String> {
     List<Token> findAllByStudent(Student student);
 
     boolean existsByStudentEqualsAndTeamIdEquals(Student student, Long teamId);
+
+    /*id del token e id del team per ogni token dello studente, senza caricare lo studente per ogni riga*/
+    @Query("SELECT t.id, t.teamId FROM Token t WHERE t.student.id = :studentId")
+    List<Object[]> getTokenIdsByStudentId(String studentId);
+
+    /*coppie (team, studente) ancora in attesa di risposta per i team indicati*/
+    @Query("SELECT t.teamId, t.student.id FROM Token t WHERE t.teamId IN :teamIds")
+    List<Object[]> getPendentiByTeamIds(Collection<Long> teamIds);
+
+    /*team che hanno almeno un token scaduto: sono le proposte da eliminare*/
+    @Query("SELECT DISTINCT t.teamId FROM Token t WHERE t.expiryDate < :istante")
+    List<Long> getTeamIdsScaduti(Timestamp istante);
+
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.expiryDate < :istante")
+    int deleteScaduti(Timestamp istante);
+
+    /*restituisce 0 se il token è già stato usato (o cancellato) da un'altra richiesta*/
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.id = :id")
+    int deleteToken(String id);
+
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.teamId IN :teamIds")
+    int deleteAllByTeamIds(Collection<Long> teamIds);
 }
@@ -0,0 +1,33 @@
+package it.polito.ai.server.repositories;
+
+import it.polito.ai.server.entities.Consegna;
+import it.polito.ai.server.entities.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /*serializza i pezzi inviati in parallelo sulla stessa sessione*/
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT u FROM UploadSession u WHERE u.id = :id")
+    Optional<UploadSession> findForUpdate(String id);
+
+    boolean existsByConsegnaIdAndStudentId(Long consegnaId, String studentId);
+
+    @Query("SELECT DISTINCT u.student.id FROM UploadSession u WHERE u.consegna.id = :consegnaId")
+    List<String> getStudentIdsByConsegnaId(Long consegnaId);
+
+    void deleteAllByConsegna(Consegna consegna);
+
+    /*sessioni abbandonate o che non possono più essere completate perchè la consegna è scaduta da troppo*/
+    @Query("SELECT u FROM UploadSession u WHERE u.ultimaAttivita < :inattiveDa OR u.consegna.scadenza < :scaduteDa")
+    List<UploadSession> findExpired(Timestamp inattiveDa, Timestamp scaduteDa);
+}
@@ -0,0 +1,56 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.repositories.ConsegnaRepository;
+import it.polito.ai.server.repositories.ElaboratoArchiviatoRepository;
+import it.polito.ai.server.repositories.ElaboratoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/*
+ * Sposta nella tabella elaborato_archiviato lo storico superato (letture, consegne e revisioni precedenti)
+ * delle consegne chiuse da più di archivio.dopo millisecondi, così la tabella elaborato contiene solo le righe
+ * che servono davvero. Ogni consegna viene archiviata una volta, in una transazione separata.
+ * Lo storico archiviato resta leggibile dalle stesse API, che lo cercano nell'archivio se la consegna è archiviata.
+ */
+@Slf4j
+@Component
+public class ArchivioElaborati {
+
+    @Value("${archivio.dopo}")
+    private long dopo;
+
+    @Autowired
+    private ConsegnaRepository consegnaRepository;
+
+    @Autowired
+    private ElaboratoRepository elaboratoRepository;
+
+    @Autowired
+    private ElaboratoArchiviatoRepository elaboratoArchiviatoRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Scheduled(fixedDelayString = "${archivio.delay}")
+    public void archivia() {
+        List<Long> consegne = consegnaRepository.getDaArchiviare(new Timestamp(System.currentTimeMillis() - dopo));
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (Long consegnaId : consegne) {
+            Integer archiviati = transaction.execute(status -> {
+                int righe = elaboratoArchiviatoRepository.archivia(consegnaId);
+                elaboratoRepository.deleteArchiviati(consegnaId);
+                consegnaRepository.segnaArchiviata(consegnaId);
+                return righe;
+            });
+            log.info("Consegna " + consegnaId + ": archiviati " + archiviati + " elaborati");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package it.polito.ai.server.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/*
+ * Decide quali contenuti comprimere prima di salvarli nello store.
+ * I formati già compressi (immagini, archivi) non guadagnerebbero nulla e costerebbero solo CPU, quindi vengono salvati così come sono.
+ */
+@Component
+public class CompressionPolicy {
+
+    @Value("${contentstore.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${contentstore.compression.level:6}")
+    private int level;
+
+    private final Set<String> skipTypes = new HashSet<>();
+
+    @Value("${contentstore.compression.skip-types}")
+    public void setSkipTypes(String[] skipTypes) {
+        this.skipTypes.clear();
+        this.skipTypes.addAll(Arrays.asList(skipTypes));
+    }
+
+    public boolean shouldCompress(String contentType) {
+        return enabled && !skipTypes.contains(contentType);
+    }
+
+    /*chi lo crea deve chiamare end() per liberare la memoria nativa*/
+    public Deflater newDeflater() {
+        return new Deflater(level);
+    }
+}
@@ -0,0 +1,31 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.repositories.TeamRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.transaction.Transactional;
+
+/*
+ * Le proposte create prima dell'introduzione di Team.pendingConfirmations hanno il contatore a 0:
+ * al primo avvio lo ricavo dai token ancora in attesa. Le proposte già inizializzate vengono saltate.
+ */
+@Slf4j
+@Component
+public class ConfermeTeamBackfill implements ApplicationRunner {
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    @Override
+    @Transactional
+    public void run(ApplicationArguments args) {
+        int righe = teamRepository.inizializzaConferme();
+        if (righe > 0) {
+            log.info("Inizializzate le conferme in attesa di " + righe + " proposte di team");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package it.polito.ai.server.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.polito.ai.server.entities.Consegna;
+import it.polito.ai.server.entities.ContentRef;
+import it.polito.ai.server.services.exceptions.ContentStoreException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Quando un docente pubblica una consegna tutta la classe la scarica nel giro di pochi minuti:
+ * il contenuto viene tenuto in memoria (cache LRU pesata sui byte) e le richieste contemporanee
+ * alla stessa consegna non ancora in cache provocano una sola lettura dallo store.
+ * Il contenuto di una consegna non cambia mai dopo la creazione, quindi basta invalidarlo quando la consegna viene cancellata.
+ */
+@Component
+public class ConsegneCache {
+
+    @Value("${consegne.cache.max-bytes}")
+    private long maxBytes;
+
+    //i contenuti più grandi vengono letti sempre in streaming dallo store, per non svuotare la cache con un solo file
+    @Value("${consegne.cache.max-entry-bytes}")
+    private long maxEntryBytes;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private LruByteCache<Long> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new LruByteCache<>(maxBytes);
+        cache.bindTo(meterRegistry, "consegne.cache");
+    }
+
+    public StoredContent get(Consegna consegna) {
+        ContentRef ref = consegna.getContenuto();
+        if (ref == null || ref.getContentKey() == null) {
+            return null;
+        }
+        if (ref.getSize() == null || ref.getSize() > maxEntryBytes) {
+            return contentStore.load(ref);
+        }
+        byte[] contenuto = cache.get(consegna.getId(), id -> leggi(ref));
+        return new StoredContent(ref, new ByteArrayResource(contenuto));
+    }
+
+    /*rimuove il contenuto dalla cache dopo il commit della cancellazione (subito se non c'è una transazione)*/
+    public void invalida(Long consegnaId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache.remove(consegnaId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                cache.remove(consegnaId);
+            }
+        });
+    }
+
+    private byte[] leggi(ContentRef ref) {
+        try (InputStream in = contentStore.load(ref).getInputStream()) {
+            return StreamUtils.copyToByteArray(in);
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+    }
+}
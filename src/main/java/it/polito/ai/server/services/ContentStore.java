@@ -0,0 +1,24 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.ContentRef;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface ContentStore {
+
+    /*
+     * Copia lo stream nello store senza mai tenerlo tutto in memoria.
+     * Ritorna il riferimento (chiave, dimensione, hash) da salvare nell'entità.
+     * Contenuti identici vengono salvati una sola volta: ogni save acquisisce un riferimento in più sullo stesso blob.
+     */
+    ContentRef save(InputStream in) throws IOException;
+
+    StoredContent load(ContentRef ref);
+
+    /*
+     * Rilascia il riferimento acquisito con save, nella transazione corrente.
+     * Il file viene cancellato dal garbage collector solo quando nessuno lo usa più.
+     */
+    void release(ContentRef ref);
+}
@@ -0,0 +1,105 @@
+package it.polito.ai.server.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Riconosce il formato di un contenuto dai primi byte (magic number).
+ * Non ci fidiamo del Content-Type dichiarato dal client nella richiesta multipart.
+ */
+public final class ContentTypes {
+
+    public static final String OCTET_STREAM = "application/octet-stream";
+
+    private static final int HEADER_SIZE = 8;
+
+    private ContentTypes() {
+    }
+
+    /*lo stream deve supportare mark/reset: dopo la chiamata è di nuovo posizionato all'inizio*/
+    public static String detect(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        in.mark(HEADER_SIZE);
+        int letti = 0;
+        while (letti < HEADER_SIZE) {
+            int n = in.read(header, letti, HEADER_SIZE - letti);
+            if (n < 0) {
+                break;
+            }
+            letti += n;
+        }
+        in.reset();
+        return detect(header, letti);
+    }
+
+    public static String detect(byte[] contenuto) {
+        return detect(contenuto, Math.min(contenuto.length, HEADER_SIZE));
+    }
+
+    /*estensione da usare nei nomi dei file (es. negli zip esportati), con il punto iniziale*/
+    public static String extension(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        switch (contentType) {
+            case "image/png":
+                return ".png";
+            case "image/jpeg":
+                return ".jpg";
+            case "image/gif":
+                return ".gif";
+            case "application/pdf":
+                return ".pdf";
+            case "application/zip":
+                return ".zip";
+            case "application/gzip":
+                return ".gz";
+            case "application/x-7z-compressed":
+                return ".7z";
+            case "application/vnd.rar":
+                return ".rar";
+            default:
+                return "";
+        }
+    }
+
+    private static String detect(byte[] h, int len) {
+        if (startsWith(h, len, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(h, len, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(h, len, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(h, len, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(h, len, 'P', 'K', 0x03, 0x04)) {
+            return "application/zip";
+        }
+        if (startsWith(h, len, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+        if (startsWith(h, len, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) {
+            return "application/x-7z-compressed";
+        }
+        if (startsWith(h, len, 'R', 'a', 'r', '!')) {
+            return "application/vnd.rar";
+        }
+        return OCTET_STREAM;
+    }
+
+    private static boolean startsWith(byte[] h, int len, int... magic) {
+        if (len < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((h[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.ContentRef;
+import it.polito.ai.server.services.exceptions.InvalidImageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/*
+ * Le vecchie versioni salvavano il contenuto di consegne ed elaborati in una colonna LONGBLOB "contenuto"
+ * nella stessa riga dei metadati. All'avvio sposto quei byte nel ContentStore, una riga alla volta
+ * (senza mai caricarli tutti in memoria), e poi elimino la colonna così le righe tornano a contenere solo metadati.
+ * Allo stesso modo le immagini profilo salvate nella colonna "image" di student e teacher
+ * vengono convertite nelle miniature di ImmaginiProfilo.
+ */
+@Slf4j
+@Component
+public class ContenutiLegacyMigration implements ApplicationRunner {
+
+    private static final String LEGACY_COLUMN = "contenuto";
+    private static final String LEGACY_IMAGE_COLUMN = "image";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ImmaginiProfilo immaginiProfilo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        migra("elaborato");
+        migra("consegna");
+        migraImmagini("student");
+        migraImmagini("teacher");
+    }
+
+    private void migra(String table) {
+        if (!esisteColonna(table, LEGACY_COLUMN)) {
+            return;
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM " + table + " WHERE " + LEGACY_COLUMN + " IS NOT NULL AND content_key IS NULL", Long.class);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (Long id : ids) {
+            /*ogni riga in una transazione separata: se l'avvio si interrompe si riprende da dove si era rimasti*/
+            transaction.execute(status -> {
+                ContentRef ref = jdbcTemplate.query("SELECT " + LEGACY_COLUMN + " FROM " + table + " WHERE id = ?",
+                        rs -> rs.next() ? salva(rs.getBinaryStream(1)) : null, id);
+                if (ref != null) {
+                    jdbcTemplate.update("UPDATE " + table + " SET content_key = ?, content_size = ?, content_sha256 = ?, content_type = ? WHERE id = ?",
+                            ref.getContentKey(), ref.getSize(), ref.getSha256(), ref.getContentType(), id);
+                }
+                return null;
+            });
+        }
+
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN " + LEGACY_COLUMN);
+        log.info("Migrati " + ids.size() + " contenuti dalla tabella " + table + " al ContentStore");
+    }
+
+    private void migraImmagini(String table) {
+        if (!esisteColonna(table, LEGACY_IMAGE_COLUMN)) {
+            return;
+        }
+
+        List<String> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM " + table + " WHERE " + LEGACY_IMAGE_COLUMN + " IS NOT NULL", String.class);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (String id : ids) {
+            transaction.execute(status -> {
+                byte[] immagine = jdbcTemplate.queryForObject("SELECT " + LEGACY_IMAGE_COLUMN + " FROM " + table + " WHERE id = ?", byte[].class, id);
+                try {
+                    immaginiProfilo.salva(id, immagine);
+                } catch (InvalidImageException e) {
+                    log.warn("Immagine profilo non leggibile per l'utente " + id + ", verrà usato l'avatar di default");
+                }
+                jdbcTemplate.update("UPDATE " + table + " SET " + LEGACY_IMAGE_COLUMN + " = NULL WHERE id = ?", id);
+                return null;
+            });
+        }
+
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN " + LEGACY_IMAGE_COLUMN);
+        log.info("Migrate " + ids.size() + " immagini profilo dalla tabella " + table);
+    }
+
+    private boolean esisteColonna(String table, String column) {
+        Integer colonne = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?",
+                Integer.class, table, column);
+        return colonne != null && colonne > 0;
+    }
+
+    private ContentRef salva(InputStream in) {
+        if (in == null) {
+            return null;
+        }
+        try (InputStream contenuto = in) {
+            return contentStore.save(contenuto);
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile migrare il contenuto", e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.dtos.ElaboratoEventDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Set;
+
+/*
+ * Pubblicato da TeamServiceImpl quando viene creato un elaborato che interessa a qualcuno (consegna o correzione).
+ * EventiSse lo inoltra solo dopo il commit agli utenti in destinatari: lo studente e i docenti del corso.
+ */
+@Getter
+@AllArgsConstructor
+public class ElaboratoEvent {
+
+    private final Set<String> destinatari;
+    private final ElaboratoEventDTO elaborato;
+}
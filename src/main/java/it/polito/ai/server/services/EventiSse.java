@@ -0,0 +1,177 @@
+package it.polito.ai.server.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Connessioni Server-Sent Events aperte dagli utenti e invio degli eventi sugli elaborati.
+ * Ogni connessione ha una coda limitata: se il client è lento gli eventi più vecchi vengono scartati
+ * (il client può sempre recuperarli con le API REST) e chi pubblica non resta mai bloccato su un client.
+ * Gli invii avvengono su un piccolo pool di thread, al massimo un invio alla volta per connessione.
+ */
+@Slf4j
+@Component
+public class EventiSse {
+
+    @Value("${sse.timeout}")
+    private long timeout;
+
+    @Value("${sse.buffer-size}")
+    private int bufferSize;
+
+    @Value("${sse.sender-threads}")
+    private int senderThreads;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Set<Connessione>> connessioni = new ConcurrentHashMap<>();
+
+    private final AtomicInteger aperte = new AtomicInteger();
+
+    private ExecutorService sender;
+
+    private Counter scartati;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger thread = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "sse-sender-" + thread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        meterRegistry.gauge("sse.connessioni", aperte);
+        scartati = meterRegistry.counter("sse.eventi.scartati");
+    }
+
+    @PreDestroy
+    public void stop() {
+        sender.shutdownNow();
+        connessioni.values().forEach(set -> set.forEach(c -> c.emitter.complete()));
+    }
+
+    public SseEmitter apri(String userId) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        Connessione connessione = new Connessione(userId, emitter);
+        emitter.onCompletion(connessione::rimuovi);
+        emitter.onTimeout(connessione::rimuovi);
+        emitter.onError(e -> connessione.rimuovi());
+        connessioni.compute(userId, (k, set) -> {
+            Set<Connessione> aggiornato = set != null ? set : new CopyOnWriteArraySet<>();
+            aggiornato.add(connessione);
+            return aggiornato;
+        });
+        aperte.incrementAndGet();
+        return emitter;
+    }
+
+    /*solo dopo il commit: un elaborato annullato da un rollback non deve mai arrivare ai client*/
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onElaborato(ElaboratoEvent evento) {
+        for (String userId : evento.getDestinatari()) {
+            connessioni.getOrDefault(userId, Collections.emptySet())
+                    .forEach(c -> c.accoda(SseEmitter.event()
+                            .name("elaborato")
+                            .id(String.valueOf(evento.getElaborato().getElaboratoId()))
+                            .data(evento.getElaborato())));
+        }
+    }
+
+    /*tiene aperte le connessioni attraverso i proxy e fa scoprire quelle chiuse dal client*/
+    @Scheduled(fixedDelayString = "${sse.heartbeat}")
+    public void heartbeat() {
+        connessioni.values().forEach(set -> set.forEach(c -> c.accoda(SseEmitter.event().comment("ping"))));
+    }
+
+    private class Connessione {
+
+        private final String userId;
+        private final SseEmitter emitter;
+        private final Deque<SseEmitter.SseEventBuilder> coda = new ArrayDeque<>();
+        private final AtomicBoolean inInvio = new AtomicBoolean();
+        private final AtomicBoolean rimossa = new AtomicBoolean();
+
+        Connessione(String userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void accoda(SseEmitter.SseEventBuilder evento) {
+            synchronized (coda) {
+                if (coda.size() >= bufferSize) {
+                    coda.pollFirst();
+                    scartati.increment();
+                }
+                coda.addLast(evento);
+            }
+            if (inInvio.compareAndSet(false, true)) {
+                sender.execute(this::invia);
+            }
+        }
+
+        private void invia() {
+            do {
+                SseEmitter.SseEventBuilder evento;
+                while ((evento = prossimo()) != null) {
+                    try {
+                        emitter.send(evento);
+                    } catch (IOException | IllegalStateException e) {
+                        //client disconnesso: la connessione non verrà più usata
+                        rimuovi();
+                        emitter.completeWithError(e);
+                        return;
+                    }
+                }
+                inInvio.set(false);
+                //un evento accodato dopo l'ultimo poll ma prima di inInvio=false verrebbe altrimenti dimenticato
+            } while (!vuota() && inInvio.compareAndSet(false, true));
+        }
+
+        private SseEmitter.SseEventBuilder prossimo() {
+            synchronized (coda) {
+                return coda.pollFirst();
+            }
+        }
+
+        private boolean vuota() {
+            synchronized (coda) {
+                return coda.isEmpty();
+            }
+        }
+
+        void rimuovi() {
+            if (!rimossa.compareAndSet(false, true)) {
+                return;
+            }
+            aperte.decrementAndGet();
+            connessioni.computeIfPresent(userId, (k, set) -> {
+                set.remove(this);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+}
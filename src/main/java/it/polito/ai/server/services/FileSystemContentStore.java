@@ -0,0 +1,298 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.ContentRef;
+import it.polito.ai.server.repositories.ContentBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Store content-addressed: la chiave di un contenuto è il suo SHA-256, quindi file identici
+ * (es. lo stesso pdf caricato da più studenti) occupano spazio una sola volta.
+ * La tabella content_blob tiene il conteggio dei riferimenti; i blob senza riferimenti
+ * vengono cancellati periodicamente da collectGarbage.
+ * I formati non già compressi (secondo CompressionPolicy) vengono salvati compressi con deflate.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "contentstore.type", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemContentStore implements ContentStore {
+
+    private static final String TMP_DIR = "tmp";
+    private static final int LOCK_STRIPES = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //i blob compressi con deflate hanno questo suffisso, così in lettura si sa se decomprimerli senza interrogare il database
+    private static final String COMPRESSED_SUFFIX = ".z";
+
+    @Value("${contentstore.root}")
+    private String root;
+
+    //tempo minimo (ms) prima di cancellare un blob rimasto senza riferimenti o un file temporaneo abbandonato
+    @Value("${contentstore.gc.grace-period:3600000}")
+    private long gracePeriod;
+
+    @Autowired
+    private ContentBlobRepository contentBlobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CompressionPolicy compressionPolicy;
+
+    private Path rootPath;
+
+    private TransactionTemplate newTransaction;
+
+    /*
+     * Lock per hash (a strisce) che rendono atomici "controlla se il file esiste e spostalo" e
+     * "controlla che il blob non esista più e cancella il file" tra upload e garbage collector.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    @PostConstruct
+    public void init() throws IOException {
+        rootPath = Paths.get(root).toAbsolutePath().normalize();
+        Files.createDirectories(rootPath.resolve(TMP_DIR));
+        newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public ContentRef save(InputStream in) throws IOException {
+        /*scrivo prima su un file temporaneo calcolando l'hash (sui byte originali) mentre lo stream passa*/
+        Path tmp = Files.createTempFile(rootPath.resolve(TMP_DIR), "upload", ".part");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            String contentType;
+            boolean compresso;
+            try (InputStream buffered = new BufferedInputStream(in);
+                 InputStream digestIn = new DigestInputStream(buffered, digest)) {
+                contentType = ContentTypes.detect(buffered);
+                compresso = compressionPolicy.shouldCompress(contentType);
+                size = compresso ? deflate(digestIn, tmp) : Files.copy(digestIn, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = toHex(digest.digest());
+
+            /*
+             * Prima acquisisco il riferimento: da qui fino al commit la riga è bloccata dalla nostra transazione
+             * e il garbage collector non può cancellarla. Solo dopo controllo che il file ci sia.
+             */
+            acquire(hash, size, Files.size(tmp));
+            synchronized (lockFor(hash)) {
+                /*se il blob esiste già lo riuso, anche se era stato salvato nell'altro formato*/
+                if (!Files.exists(pathOf(hash)) && !Files.exists(compressedPathOf(hash))) {
+                    Path target = compresso ? compressedPathOf(hash) : pathOf(hash);
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+            return ContentRef.builder()
+                    .contentKey(hash)
+                    .size(size)
+                    .sha256(hash)
+                    .contentType(contentType)
+                    .build();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public StoredContent load(ContentRef ref) {
+        Path compresso = compressedPathOf(ref.getContentKey());
+        if (Files.exists(compresso)) {
+            return new StoredContent(ref, new InflatingResource(new FileSystemResource(compresso)));
+        }
+        return new StoredContent(ref, new FileSystemResource(pathOf(ref.getContentKey())));
+    }
+
+    @Override
+    public void release(ContentRef ref) {
+        if (ref == null || ref.getContentKey() == null) {
+            return;
+        }
+        /*se la transazione fallisce il decremento viene annullato insieme al resto*/
+        contentBlobRepository.release(ref.getContentKey(), new Timestamp(System.currentTimeMillis()));
+    }
+
+    private void acquire(String hash, long size, long storedSize) {
+        if (contentBlobRepository.acquire(hash) > 0) {
+            return;
+        }
+        /*
+         * Il blob è nuovo: lo inserisco con refCount 0 in una transazione separata, così è subito visibile
+         * al garbage collector (che quindi non cancella il file) e due upload identici in parallelo non vanno in conflitto.
+         * Un blob appena inserito non viene raccolto prima del periodo di grazia.
+         */
+        newTransaction.execute(status -> contentBlobRepository.insertIfAbsent(hash, size, storedSize, new Timestamp(System.currentTimeMillis())));
+        contentBlobRepository.acquire(hash);
+    }
+
+    /*
+     * Cancella i blob rimasti senza riferimenti da più del periodo di grazia
+     * e i file temporanei lasciati da upload interrotti.
+     */
+    @Scheduled(fixedDelayString = "${contentstore.gc.delay:600000}")
+    public void collectGarbage() {
+        Timestamp limit = new Timestamp(System.currentTimeMillis() - gracePeriod);
+        List<String> candidates = contentBlobRepository.findUnreferenced(limit);
+        int deleted = 0;
+        for (String hash : candidates) {
+            Integer rows = newTransaction.execute(status -> contentBlobRepository.deleteUnreferenced(hash, limit));
+            if (rows == null || rows == 0) {
+                continue; //nel frattempo qualcuno ha caricato di nuovo lo stesso contenuto
+            }
+            synchronized (lockFor(hash)) {
+                /*un upload concorrente potrebbe aver già reinserito il blob riusando il file*/
+                if (!contentBlobRepository.existsById(hash)) {
+                    deleteQuietly(pathOf(hash));
+                    deleteQuietly(compressedPathOf(hash));
+                    deleted++;
+                }
+            }
+        }
+        deleteStaleTemporaryFiles(limit.getTime());
+        if (deleted > 0) {
+            log.info("Contenuti non più referenziati cancellati: " + deleted);
+        }
+    }
+
+    private void deleteStaleTemporaryFiles(long limit) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(rootPath.resolve(TMP_DIR))) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < limit) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Impossibile pulire la cartella dei file temporanei", e);
+        }
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Path pathOf(String key) {
+        /*uso i primi due caratteri della chiave come sottocartella per non avere milioni di file nella stessa directory*/
+        return rootPath.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private Path compressedPathOf(String key) {
+        return pathOf(key).resolveSibling(key + COMPRESSED_SUFFIX);
+    }
+
+    /*comprime lo stream nel file e ritorna il numero di byte originali letti*/
+    private long deflate(InputStream in, Path file) throws IOException {
+        Deflater deflater = compressionPolicy.newDeflater();
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(file), deflater, BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long letti = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                letti += n;
+            }
+            return letti;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Decomprime il blob mentre viene letto: il contenuto non viene mai espanso tutto in memoria.
+     * Le richieste Range funzionano saltando (leggendo e scartando) i byte iniziali dello stream decompresso.
+     */
+    private static class InflatingResource extends AbstractResource {
+
+        private final Resource compressed;
+
+        InflatingResource(Resource compressed) {
+            this.compressed = compressed;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(compressed.getInputStream(), inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean exists() {
+            return compressed.exists();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Contenuto compresso [" + compressed.getDescription() + "]";
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package it.polito.ai.server.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.polito.ai.server.entities.ContentRef;
+import it.polito.ai.server.entities.ImmagineProfilo;
+import it.polito.ai.server.repositories.ImmagineProfiloRepository;
+import it.polito.ai.server.services.exceptions.ContentStoreException;
+import it.polito.ai.server.services.exceptions.InvalidImageException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/*
+ * Gestisce le immagini profilo di studenti e docenti.
+ * Al caricamento l'immagine viene decodificata una sola volta e salvata come PNG in poche dimensioni fisse;
+ * in lettura si serve la miniatura più piccola che copre la dimensione richiesta.
+ * Le miniature (e l'avatar di default) vengono servite da una cache LRU in memoria.
+ */
+@Service
+public class ImmaginiProfilo {
+
+    private static final String AVATAR_DEFAULT = "img/userProfile.png";
+    private static final String CHIAVE_DEFAULT = "";
+
+    //oltre questa soglia l'immagine non viene nemmeno decodificata (evita di allocare gigabyte per un png malevolo)
+    private static final long MAX_PIXEL = 40_000_000L;
+
+    @Value("${immagini.dimensioni}")
+    private int[] dimensioni;
+
+    @Value("${immagini.cache.max-bytes}")
+    private long cacheMaxBytes;
+
+    @Autowired
+    private ImmagineProfiloRepository immagineProfiloRepository;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private LruByteCache<String> cache;
+
+    @PostConstruct
+    public void init() {
+        Arrays.sort(dimensioni);
+        cache = new LruByteCache<>(cacheMaxBytes);
+
+        cache.bindTo(meterRegistry, "immagini.cache");
+    }
+
+    /*
+     * Sostituisce l'immagine profilo dell'utente.
+     * Rilancia InvalidImageException se i byte non sono un'immagine leggibile.
+     */
+    public void salva(String userId, byte[] originale) {
+        BufferedImage immagine = decodifica(originale);
+
+        for (int dimensione : dimensioni) {
+            ContentRef ref;
+            try {
+                ref = contentStore.save(new ByteArrayInputStream(miniatura(immagine, dimensione)));
+            } catch (IOException e) {
+                throw new ContentStoreException(e);
+            }
+
+            ImmagineProfilo variante = immagineProfiloRepository.findByUserIdAndDimensione(userId, dimensione)
+                    .orElseGet(() -> ImmagineProfilo.builder().userId(userId).dimensione(dimensione).build());
+            contentStore.release(variante.getContenuto());
+            variante.setContenuto(ref);
+            immagineProfiloRepository.save(variante);
+        }
+
+        invalidaDopoCommit(userId);
+    }
+
+    /*
+     * Ritorna la miniatura PNG più piccola con lato >= dimensione (la più grande se dimensione è null o troppo grande).
+     * Se l'utente non ha un'immagine ritorna l'avatar di default alla stessa dimensione.
+     */
+    public byte[] leggi(String userId, Integer dimensione) {
+        int variante = variante(dimensione);
+        byte[] immagine = cache.get(chiave(userId, variante), k -> carica(userId, variante));
+        if (immagine != null) {
+            return immagine;
+        }
+        return cache.get(chiave(CHIAVE_DEFAULT, variante), k -> avatarDefault(variante));
+    }
+
+    private byte[] carica(String userId, int dimensione) {
+        return immagineProfiloRepository.findByUserIdAndDimensione(userId, dimensione)
+                .filter(i -> i.getContenuto() != null)
+                .map(i -> {
+                    try (InputStream in = contentStore.load(i.getContenuto()).getInputStream()) {
+                        return StreamUtils.copyToByteArray(in);
+                    } catch (IOException e) {
+                        throw new ContentStoreException(e);
+                    }
+                })
+                .orElse(null);
+    }
+
+    private byte[] avatarDefault(int dimensione) {
+        try (InputStream in = new ClassPathResource(AVATAR_DEFAULT).getInputStream()) {
+            return miniatura(decodifica(StreamUtils.copyToByteArray(in)), dimensione);
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+    }
+
+    private void invalidaDopoCommit(String userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalida(userId);
+            return;
+        }
+        /*invalido anche dopo il commit: nel frattempo una lettura concorrente potrebbe aver rimesso in cache la vecchia immagine*/
+        invalida(userId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalida(userId);
+            }
+        });
+    }
+
+    private void invalida(String userId) {
+        for (int dimensione : dimensioni) {
+            cache.remove(chiave(userId, dimensione));
+        }
+    }
+
+    private int variante(Integer dimensione) {
+        if (dimensione != null) {
+            for (int d : dimensioni) {
+                if (d >= dimensione) {
+                    return d;
+                }
+            }
+        }
+        return dimensioni[dimensioni.length - 1];
+    }
+
+    private static String chiave(String userId, int dimensione) {
+        return userId + ":" + dimensione;
+    }
+
+    private static BufferedImage decodifica(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            throw new InvalidImageException();
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new InvalidImageException();
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXEL) {
+                    throw new InvalidImageException();
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new InvalidImageException();
+        }
+    }
+
+    private static byte[] miniatura(BufferedImage immagine, int lato) {
+        double scala = Math.min(1.0, (double) lato / Math.max(immagine.getWidth(), immagine.getHeight()));
+        int larghezza = Math.max(1, (int) Math.round(immagine.getWidth() * scala));
+        int altezza = Math.max(1, (int) Math.round(immagine.getHeight() * scala));
+
+        /*dimezzo più volte prima del ridimensionamento finale: un unico passo bilineare su immagini grandi perde troppi dettagli*/
+        BufferedImage corrente = immagine;
+        while (corrente.getWidth() / 2 >= larghezza && corrente.getHeight() / 2 >= altezza) {
+            corrente = ridimensiona(corrente, corrente.getWidth() / 2, corrente.getHeight() / 2);
+        }
+        if (corrente.getWidth() != larghezza || corrente.getHeight() != altezza || corrente.getType() != BufferedImage.TYPE_INT_ARGB) {
+            corrente = ridimensiona(corrente, larghezza, altezza);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(corrente, "png", out);
+        } catch (IOException e) {
+            throw new InvalidImageException();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage ridimensiona(BufferedImage immagine, int larghezza, int altezza) {
+        BufferedImage risultato = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = risultato.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(immagine, 0, 0, larghezza, altezza, null);
+        } finally {
+            g.dispose();
+        }
+        return risultato;
+    }
+}
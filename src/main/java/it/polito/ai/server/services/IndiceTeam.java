@@ -0,0 +1,208 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.dtos.TeamDTO;
+import it.polito.ai.server.repositories.TeamRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/*
+ * Indice in memoria di "quale studente fa parte di quale team di un corso" (corso -> studente -> team).
+ * Viene ricostruito dal database all'avvio e aggiornato da TeamServiceImpl ad ogni passo della vita di un team
+ * (proposta, attivazione, eliminazione) solo dopo il commit della transazione che lo ha modificato,
+ * così una transazione annullata non lascia traccia nell'indice.
+ * La prima ricostruzione avviene quando tutti i bean sono stati creati ma prima che il server web accetti richieste:
+ * nessuna lettura vede l'indice vuoto (un ApplicationRunner arriverebbe troppo tardi).
+ * Le letture non toccano il database e non richiedono lock; le scritture sono serializzate.
+ */
+@Slf4j
+@Component
+public class IndiceTeam implements SmartInitializingSingleton {
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    private volatile Map<Long, Voce> teams = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Map<String, Set<Long>>> perCorso = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ricostruisci();
+    }
+
+    public synchronized void ricostruisci() {
+        Map<Long, Object[]> righe = new HashMap<>();
+        Map<Long, Set<String>> membri = new HashMap<>();
+        for (Object[] row : teamRepository.getTeamsConMembri()) {
+            Long teamId = (Long) row[0];
+            righe.putIfAbsent(teamId, row);
+            Set<String> membriTeam = membri.computeIfAbsent(teamId, id -> new HashSet<>());
+            if (row[5] != null) {
+                membriTeam.add((String) row[5]);
+            }
+        }
+
+        Map<Long, Voce> nuoviTeams = new ConcurrentHashMap<>();
+        Map<String, Map<String, Set<Long>>> nuovoPerCorso = new ConcurrentHashMap<>();
+        righe.forEach((teamId, row) -> {
+            Voce voce = new Voce(teamId, (String) row[1], (String) row[2], (Integer) row[3], (String) row[4],
+                    Collections.unmodifiableSet(membri.get(teamId)));
+            nuoviTeams.put(teamId, voce);
+            indicizza(nuovoPerCorso, voce);
+        });
+
+        teams = nuoviTeams;
+        perCorso = nuovoPerCorso;
+        log.info("Indice dei team ricostruito: " + nuoviTeams.size() + " team");
+    }
+
+    /*--- letture ---*/
+
+    /*id degli studenti che fanno parte di almeno un team (attivo o proposto) del corso*/
+    public Set<String> getStudentiInTeam(String courseName) {
+        return Collections.unmodifiableSet(corso(courseName).keySet());
+    }
+
+    /*id degli studenti che fanno parte di un team attivo del corso*/
+    public Set<String> getStudentiInTeamAttivo(String courseName) {
+        return corso(courseName).entrySet().stream()
+                .filter(e -> e.getValue().stream().anyMatch(id -> stato(id) == 1))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    /*team (attivi e proposti) del corso di cui fa parte lo studente*/
+    public List<TeamDTO> getTeams(String courseName, String studentId) {
+        Set<Long> ids = corso(courseName).getOrDefault(studentId, Collections.emptySet());
+        return ids.stream()
+                .map(teams::get)
+                .filter(Objects::nonNull)
+                .map(Voce::toDTO)
+                .collect(Collectors.toList());
+    }
+
+    /*il team attivo dello studente nel corso se c'è, altrimenti una delle proposte che lo includono*/
+    public Optional<TeamDTO> getTeam(String courseName, String studentId) {
+        List<TeamDTO> teamsStudente = getTeams(courseName, studentId);
+        Optional<TeamDTO> attivo = teamsStudente.stream().filter(t -> t.getStatus() == 1).findFirst();
+        return attivo.isPresent() ? attivo : teamsStudente.stream().findFirst();
+    }
+
+    /*--- aggiornamenti: vengono applicati solo dopo il commit della transazione corrente ---*/
+
+    public void proposto(Long teamId, String courseName, String name, String proponenteId, Collection<String> membri) {
+        Voce voce = new Voce(teamId, courseName, name, 0, proponenteId, Collections.unmodifiableSet(new HashSet<>(membri)));
+        dopoCommit(() -> {
+            teams.put(teamId, voce);
+            indicizza(perCorso, voce);
+        });
+    }
+
+    public void attivato(Long teamId) {
+        dopoCommit(() -> {
+            Voce voce = teams.get(teamId);
+            if (voce != null) {
+                teams.put(teamId, new Voce(voce.id, voce.courseName, voce.name, 1, voce.proponenteId, voce.membri));
+            }
+        });
+    }
+
+    public void eliminati(Collection<Long> teamIds) {
+        List<Long> ids = new ArrayList<>(teamIds);
+        dopoCommit(() -> ids.forEach(this::rimuovi));
+    }
+
+    public void corsoEliminato(String courseName) {
+        dopoCommit(() -> {
+            teams.values().removeIf(v -> v.courseName.equals(courseName));
+            perCorso.remove(courseName);
+        });
+    }
+
+    private void dopoCommit(Runnable aggiornamento) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            synchronized (this) {
+                aggiornamento.run();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                synchronized (IndiceTeam.this) {
+                    aggiornamento.run();
+                }
+            }
+        });
+    }
+
+    private static void indicizza(Map<String, Map<String, Set<Long>>> indice, Voce voce) {
+        Map<String, Set<Long>> studenti = indice.computeIfAbsent(voce.courseName, c -> new ConcurrentHashMap<>());
+        voce.membri.forEach(s -> studenti.computeIfAbsent(s, x -> ConcurrentHashMap.newKeySet()).add(voce.id));
+    }
+
+    private void rimuovi(Long teamId) {
+        Voce voce = teams.remove(teamId);
+        if (voce == null) {
+            return;
+        }
+        Map<String, Set<Long>> studenti = perCorso.get(voce.courseName);
+        if (studenti == null) {
+            return;
+        }
+        for (String studentId : voce.membri) {
+            Set<Long> ids = studenti.get(studentId);
+            if (ids != null) {
+                ids.remove(teamId);
+                if (ids.isEmpty()) {
+                    studenti.remove(studentId);
+                }
+            }
+        }
+    }
+
+    private Map<String, Set<Long>> corso(String courseName) {
+        return perCorso.getOrDefault(courseName, Collections.emptyMap());
+    }
+
+    private int stato(Long teamId) {
+        Voce voce = teams.get(teamId);
+        return voce == null ? -1 : voce.status;
+    }
+
+    private static class Voce {
+
+        private final Long id;
+        private final String courseName;
+        private final String name;
+        private final int status;
+        private final String proponenteId;
+        private final Set<String> membri;
+
+        Voce(Long id, String courseName, String name, int status, String proponenteId, Set<String> membri) {
+            this.id = id;
+            this.courseName = courseName;
+            this.name = name;
+            this.status = status;
+            this.proponenteId = proponenteId;
+            this.membri = membri;
+        }
+
+        TeamDTO toDTO() {
+            TeamDTO dto = new TeamDTO();
+            dto.setId(id);
+            dto.setName(name);
+            dto.setStatus(status);
+            dto.setProponenteId(proponenteId);
+            return dto;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package it.polito.ai.server.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*
+ * Cache LRU di array di byte limitata dalla somma delle dimensioni dei valori (e non dal numero di elementi).
+ * Quando si supera il limite vengono scartati gli elementi usati meno di recente.
+ * Un valore più grande dell'intera cache non viene memorizzato.
+ * Più richieste contemporanee per la stessa chiave mancante provocano un solo caricamento (single-flight).
+ */
+public class LruByteCache<K> {
+
+    private final long maxBytes;
+
+    /*accessOrder = true: l'ordine di iterazione va dal meno al più recentemente usato*/
+    private final LinkedHashMap<K, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    //incrementato ad ogni remove: un caricamento iniziato prima di un'invalidazione non rimette in cache il valore vecchio
+    private long epoch;
+
+    private final ConcurrentHashMap<K, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public LruByteCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public byte[] get(K key) {
+        byte[] value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /*
+     * Ritorna il valore in cache oppure lo calcola con loader (fuori dal lock) e lo memorizza.
+     * Se nel frattempo un altro thread sta già caricando la stessa chiave ne attende il risultato invece di ricaricarla.
+     * Se loader ritorna null non viene memorizzato nulla.
+     */
+    public byte[] get(K key, Function<K, byte[]> loader) {
+        byte[] value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            long startEpoch;
+            synchronized (this) {
+                startEpoch = epoch;
+            }
+            value = loader.apply(key);
+            if (value != null) {
+                synchronized (this) {
+                    if (epoch == startEpoch) {
+                        put(key, value);
+                    }
+                }
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public synchronized void put(K key, byte[] value) {
+        if (value.length > maxBytes) {
+            remove(key);
+            return;
+        }
+        byte[] previous = entries.put(key, value);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += value.length;
+
+        Iterator<Map.Entry<K, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<K, byte[]> eldest = it.next();
+            bytes -= eldest.getValue().length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void remove(K key) {
+        epoch++;
+        byte[] previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+    }
+
+    /*pubblica hit, miss, evictions, caricamenti accorpati, numero di elementi e byte occupati con il prefisso name*/
+    public void bindTo(MeterRegistry registry, String name) {
+        FunctionCounter.builder(name + ".hits", this, LruByteCache::hits).register(registry);
+        FunctionCounter.builder(name + ".misses", this, LruByteCache::misses).register(registry);
+        FunctionCounter.builder(name + ".evictions", this, LruByteCache::evictions).register(registry);
+        FunctionCounter.builder(name + ".coalesced", this, LruByteCache::coalesced).register(registry);
+        Gauge.builder(name + ".size", this, LruByteCache::size).register(registry);
+        Gauge.builder(name + ".bytes", this, LruByteCache::bytes).baseUnit("bytes").register(registry);
+    }
+
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+}
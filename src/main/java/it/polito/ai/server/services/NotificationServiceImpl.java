@@ -1,5 +1,7 @@
 package it.polito.ai.server.services;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import it.polito.ai.server.dtos.StudentDTO;
 import it.polito.ai.server.dtos.TeacherDTO;
 import it.polito.ai.server.dtos.TeamDTO;
@@ -9,7 +11,6 @@ import it.polito.ai.server.entities.Token;
 import it.polito.ai.server.repositories.RegistrationTokenRepository;
 import it.polito.ai.server.repositories.TokenRepository;
 import it.polito.ai.server.services.exceptions.InvalidUserException;
-import it.polito.ai.server.services.exceptions.TeamNotFoundException;
 import it.polito.ai.server.services.exceptions.TokenExpiredException;
 import it.polito.ai.server.services.exceptions.TokenNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +19,7 @@ import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import javax.transaction.Transactional;
@@ -40,6 +42,21 @@ public class NotificationServiceImpl implements NotificationService {
     @Autowired
     private RegistrationTokenRepository registrationTokenRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //righe eliminate ad ogni esecuzione delle pulizie periodiche
+    private DistributionSummary tokensScaduti;
+    private DistributionSummary teamScaduti;
+    private DistributionSummary registrazioniScadute;
+
+    @PostConstruct
+    public void init() {
+        tokensScaduti = meterRegistry.summary("pulizia.token.scaduti");
+        teamScaduti = meterRegistry.summary("pulizia.team.scaduti");
+        registrazioniScadute = meterRegistry.summary("pulizia.registrazioni.scadute");
+    }
+
     @Override
     public void sendMessage(String address, String subject, String body) {
         if(address == null || subject ==null || body ==null){
@@ -71,28 +88,16 @@ public class NotificationServiceImpl implements NotificationService {
         if(token==null){
             throw  new TokenNotFoundException();
         }
-        if(!tokenRepository.findById(token).isPresent()){
-            throw  new TokenNotFoundException();
-        }
-        Token t = tokenRepository.findById(token).get();
+        Token t = tokenRepository.findById(token).orElseThrow(TokenNotFoundException::new);
         if(t.getExpiryDate().before(new Timestamp(System.currentTimeMillis()))) {
             throw new TokenExpiredException();
         }
-        /*rimuovo token dalla tabella*/
-        tokenRepository.delete(t);
-        List<Token> danglingTokens = tokenRepository.findAllByTeamId(t.getTeamId());
-        if(danglingTokens.size()==0){
-            /*ultima conferma*/
-            try{
-            teamService.activateTeam(t.getTeamId());
-            return true;
-            }catch (TeamNotFoundException e){
-                return false;
-            }
-        }
-        else{
-        return false;
+        /*rimuovo token dalla tabella: se un'altra richiesta lo ha già usato la conferma non va contata due volte*/
+        if(tokenRepository.deleteToken(t.getId())==0){
+            return false;
         }
+        /*il team viene attivato solo dalla conferma che porta a 0 quelle in attesa*/
+        return teamService.confermaTeam(t.getTeamId());
     }
 
     @Override
@@ -100,24 +105,17 @@ public class NotificationServiceImpl implements NotificationService {
         if(token==null){
             throw  new TokenNotFoundException();
         }
-        if(!tokenRepository.findById(token).isPresent()){
+        Optional<Token> tokenOp = tokenRepository.findById(token);
+        if(!tokenOp.isPresent()){
             /*sia perchè non è mai esistito sia perchè esisteva ed è stato cancellato*/
             return false;
         }
-        Token t = tokenRepository.findById(token).get();
+        Token t = tokenOp.get();
         if(t.getExpiryDate().before(new Timestamp(System.currentTimeMillis()))) {
             throw new TokenExpiredException();
         }
-        List<Token> danglingTokens = tokenRepository.findAllByTeamId(t.getTeamId());
-        for(Token tk : danglingTokens){
-            tokenRepository.delete(tk);
-        }
-        try{
-            teamService.evictTeam(t.getTeamId());
-            return true;
-        }catch (TeamNotFoundException e){
-            return false;
-        }
+        /*elimina con istruzioni bulk i token rimasti e il team, restituisce 0 se il team non esiste più*/
+        return teamService.evictTeams(Collections.singletonList(t.getTeamId())) > 0;
     }
 
     @Override
@@ -186,22 +184,27 @@ public class NotificationServiceImpl implements NotificationService {
 
     }
 
-  @Scheduled(fixedDelay = 10000)
+    /*
+     * Le proposte scadute vengono eliminate con istruzioni bulk: prima leggo (dall'indice su expiry_date)
+     * gli id dei team con token scaduti, poi cancello i token scaduti e i team con quanto vi fa riferimento.
+     */
+    @Scheduled(fixedDelay = 10000)
     public void deleteExpiredTeams(){
-        List<Token> expiredTokens = tokenRepository.findAllByExpiryDateBefore(new Timestamp(System.currentTimeMillis()));
-        Set<Long> expiredTeamIds = new HashSet<>(); //in modo che la add di un duplicato non abbia effetto
-        for(Token token : expiredTokens){
-            expiredTeamIds.add(token.getTeamId());
+        Timestamp adesso = new Timestamp(System.currentTimeMillis());
+        List<Long> expiredTeamIds = tokenRepository.getTeamIdsScaduti(adesso);
+        if(expiredTeamIds.isEmpty()){
+            //registro anche le esecuzioni a vuoto, come per i token di registrazione
+            tokensScaduti.record(0);
+            teamScaduti.record(0);
+            return;
         }
-        tokenRepository.deleteAll(expiredTokens);
-        teamService.evictTeams(new ArrayList<>(expiredTeamIds)); //non lancia eccezioni
+        tokensScaduti.record(tokenRepository.deleteScaduti(adesso));
+        teamScaduti.record(teamService.evictTeams(expiredTeamIds)); //non lancia eccezioni
     }
 
     @Scheduled(fixedDelay = 10000)
     public void deleteExpiredRegistrationToken(){
-        List<RegistrationToken> expiredTokens = registrationTokenRepository
-                .findAllByExpiryDateBefore(new Timestamp(System.currentTimeMillis()));
-        registrationTokenRepository.deleteAll(expiredTokens);
+        registrazioniScadute.record(registrationTokenRepository.deleteScaduti(new Timestamp(System.currentTimeMillis())));
     }
 
 
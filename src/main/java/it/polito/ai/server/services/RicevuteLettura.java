@@ -0,0 +1,152 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.StatoElaborato;
+import it.polito.ai.server.services.exceptions.TeamServiceException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/*
+ * Ricevute di lettura di consegne e correzioni scritte in differita.
+ * La prima lettura di una consegna (o di una correzione) crea un elaborato LETTO: invece di scriverlo durante la GET
+ * la ricevuta viene messa in coda e un job periodico le scrive a gruppi, una transazione per gruppo.
+ * Le transizioni che dipendono da LETTO (consegna di un elaborato, chiusura alla scadenza) prima di leggere lo stato
+ * scrivono nella propria transazione la ricevuta ancora in coda, quindi vedono sempre la lettura.
+ * Le ricevute escono dalla coda solo dopo il commit di chi le ha scritte e scriverle due volte non ha effetto.
+ */
+@Slf4j
+@Component
+public class RicevuteLettura {
+
+    //oltre questo numero di ricevute in attesa la lettura viene scritta subito, come prima
+    @Value("${letture.max-pending}")
+    private int maxPending;
+
+    @Value("${letture.batch-size}")
+    private int batchSize;
+
+    @Autowired
+    @Lazy
+    private TeamService teamService;
+
+    //una sola ricevuta per coppia (consegna, studente)
+    private final Map<String, Ricevuta> pendenti = new ConcurrentHashMap<>();
+
+    /*restituisce false se la coda è piena: in quel caso la ricevuta va scritta subito dal chiamante*/
+    public boolean registra(Ricevuta ricevuta) {
+        String chiave = ricevuta.chiave();
+        if (pendenti.size() >= maxPending && !pendenti.containsKey(chiave)) {
+            return false;
+        }
+        /*
+         * se c'è già una ricevuta per la stessa coppia tengo quella di una correzione: la lettura della consegna
+         * vale solo finché non c'è nessuna revisione, quindi non potrebbero valere entrambe
+         */
+        pendenti.merge(chiave, ricevuta, (vecchia, nuova) -> nuova.getRevisioneId() != null ? nuova : vecchia);
+        return true;
+    }
+
+    public Optional<Ricevuta> pendente(Long consegnaId, String studentId) {
+        return Optional.ofNullable(pendenti.get(StatoElaborato.chiave(consegnaId, studentId)));
+    }
+
+    public List<Ricevuta> pendentiPerConsegna(Long consegnaId) {
+        return pendenti.values().stream()
+                .filter(r -> r.getConsegnaId().equals(consegnaId))
+                .collect(Collectors.toList());
+    }
+
+    /*la ricevuta scritta dentro un'altra transazione esce dalla coda solo se quella transazione va a buon fine*/
+    public void rimuoviDopoCommit(Ricevuta ricevuta) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                pendenti.remove(ricevuta.chiave(), ricevuta);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${letture.flush-delay}")
+    public void scrivi() {
+        while (!pendenti.isEmpty()) {
+            List<Ricevuta> gruppo = pendenti.values().stream().limit(batchSize).collect(Collectors.toList());
+            List<Ricevuta> scritte;
+            try {
+                teamService.registraLetture(gruppo);
+                scritte = gruppo;
+            } catch (RuntimeException e) {
+                scritte = scriviUnaAllaVolta(gruppo);
+            }
+            scritte.forEach(r -> pendenti.remove(r.chiave(), r));
+            if (scritte.size() < gruppo.size()) {
+                //il database non risponde: riprovo al prossimo giro
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        try {
+            scrivi();
+        } catch (RuntimeException e) {
+            log.warn(pendenti.size() + " ricevute di lettura non scritte allo spegnimento", e);
+        }
+    }
+
+    /*
+     * Un gruppo fallito viene riprovato ricevuta per ricevuta: quelle che violano un vincolo o che il servizio
+     * rifiuta (consegna o studente cancellati nel frattempo) vengono scartate senza bloccare le altre.
+     * Solo gli altri errori (es. database non raggiungibile) interrompono la scrittura fino al prossimo giro.
+     */
+    private List<Ricevuta> scriviUnaAllaVolta(List<Ricevuta> gruppo) {
+        List<Ricevuta> scritte = new ArrayList<>();
+        for (Ricevuta ricevuta : gruppo) {
+            try {
+                teamService.registraLetture(Collections.singletonList(ricevuta));
+            } catch (DataIntegrityViolationException | TeamServiceException e) {
+                log.warn("Ricevuta di lettura scartata per " + ricevuta.chiave(), e);
+            } catch (RuntimeException e) {
+                log.warn("Scrittura delle ricevute di lettura fallita", e);
+                return scritte;
+            }
+            scritte.add(ricevuta);
+        }
+        return scritte;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Ricevuta {
+
+        private final Long consegnaId;
+        private final String studentId;
+
+        //null per la lettura della consegna, id della revisione per la lettura di una correzione
+        private final Long revisioneId;
+
+        private final Timestamp dataLettura;
+
+        String chiave() {
+            return StatoElaborato.chiave(consegnaId, studentId);
+        }
+    }
+}
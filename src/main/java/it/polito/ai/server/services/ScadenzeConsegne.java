@@ -0,0 +1,123 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.repositories.ConsegnaRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Chiude ogni consegna esattamente una volta, allo scadere della sua scadenza.
+ * Le scadenze da attendere stanno in una DelayQueue: finché nessuna è scaduta il thread resta fermo
+ * senza fare query. All'avvio la coda viene ricostruita dalle consegne non ancora chiuse
+ * (quelle scadute mentre il server era spento vengono chiuse subito); createConsegna aggiunge le nuove.
+ * La coda viene caricata solo ad applicazione pronta, cioè dopo che tutti gli ApplicationRunner
+ * (ricostruzione degli stati e migrazione dei contenuti) sono terminati: prima di allora una chiusura
+ * vedrebbe stati non ancora ricostruiti dallo storico.
+ */
+@Slf4j
+@Component
+public class ScadenzeConsegne {
+
+    //se la chiusura fallisce (es. database non raggiungibile) la riprovo dopo questo intervallo
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    @Autowired
+    private ConsegnaRepository consegnaRepository;
+
+    @Autowired
+    @Lazy
+    private TeamService teamService;
+
+    private final DelayQueue<Scadenza> scadenze = new DelayQueue<>();
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Thread worker;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void avvia() {
+        migraConsegneLegacy();
+        for (Object[] row : consegnaRepository.getScadenzeAperte()) {
+            pianifica((Long) row[0], (Timestamp) row[1]);
+        }
+        log.info("In attesa della scadenza di " + scadenze.size() + " consegne");
+
+        worker = new Thread(this::chiudiScadute, "scadenze-consegne");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /*
+     * Le consegne create prima di "chiusa" vengono segnate come aperte e chiuse una sola volta dalla coda,
+     * come tutte le altre: anche quelle scadute mentre il server era spento per l'aggiornamento.
+     * La coda parte dopo la ricostruzione degli stati, quindi la chiusura vede gli stati reali.
+     */
+    private void migraConsegneLegacy() {
+        Integer righe = new TransactionTemplate(transactionManager).execute(status -> consegnaRepository.segnaAperteLegacy());
+        if (righe != null && righe > 0) {
+            log.info("Segnate come aperte " + righe + " consegne esistenti");
+        }
+    }
+
+    /*la stessa consegna può essere pianificata più volte: la chiusura è idempotente*/
+    public void pianifica(Long consegnaId, Timestamp scadenza) {
+        scadenze.add(new Scadenza(consegnaId, scadenza.getTime()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void chiudiScadute() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Scadenza scadenza;
+            try {
+                scadenza = scadenze.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                teamService.chiudiConsegna(scadenza.consegnaId);
+            } catch (RuntimeException e) {
+                log.warn("Chiusura della consegna " + scadenza.consegnaId + " fallita, nuovo tentativo tra " + RETRY_DELAY + " ms", e);
+                scadenze.add(new Scadenza(scadenza.consegnaId, System.currentTimeMillis() + RETRY_DELAY));
+            }
+        }
+    }
+
+    private static class Scadenza implements Delayed {
+
+        private final Long consegnaId;
+        private final long istante;
+
+        Scadenza(Long consegnaId, long istante) {
+            this.consegnaId = consegnaId;
+            this.istante = istante;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(istante - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(istante, ((Scadenza) o).istante);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.Elaborato;
+import it.polito.ai.server.entities.StatoElaborato;
+import it.polito.ai.server.repositories.ElaboratoRepository;
+import it.polito.ai.server.repositories.StatoElaboratoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Al primo avvio dopo l'introduzione di StatoElaborato ricostruisce lo stato corrente di ogni coppia
+ * (consegna, studente) a partire dallo storico degli elaborati. Le coppie che hanno già uno stato vengono saltate.
+ * Lo storico viene letto una consegna alla volta, ognuna nella propria transazione, così in memoria
+ * non c'è mai più dello storico di una consegna.
+ */
+@Slf4j
+@Component
+public class StatiElaboratiBackfill implements ApplicationRunner {
+
+    @Autowired
+    private ElaboratoRepository elaboratoRepository;
+
+    @Autowired
+    private StatoElaboratoRepository statoElaboratoRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<Long> consegne = elaboratoRepository.getConsegneWithoutStato();
+        if (consegne.isEmpty()) {
+            return;
+        }
+
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        int totale = 0;
+        for (Long consegnaId : consegne) {
+            Integer ricostruiti = transaction.execute(status -> ricostruisci(consegnaId));
+            totale += ricostruiti == null ? 0 : ricostruiti;
+        }
+        log.info("Ricostruito lo stato di " + totale + " coppie (consegna, studente)");
+    }
+
+    private int ricostruisci(Long consegnaId) {
+        Map<String, StatoElaborato> stati = new LinkedHashMap<>();
+        for (Elaborato e : elaboratoRepository.findAllWithoutStato(consegnaId)) {
+            stati.computeIfAbsent(StatoElaborato.chiave(consegnaId, e.getStudent().getId()), k -> StatoElaborato.builder()
+                    .id(k)
+                    .consegna(e.getConsegna())
+                    .student(e.getStudent())
+                    .build())
+                    .aggiorna(e);
+        }
+        statoElaboratoRepository.saveAll(stati.values());
+        return stati.size();
+    }
+}
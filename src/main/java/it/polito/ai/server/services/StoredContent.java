@@ -0,0 +1,56 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.entities.ContentRef;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Contenuto letto dal ContentStore: i byte non vengono caricati finchè chi lo usa non apre lo stream (o il channel).
+ * Insieme ai byte espone il ContentRef, così chi risponde al client conosce dimensione e hash senza leggere il contenuto.
+ */
+public class StoredContent extends AbstractResource {
+
+    private final ContentRef ref;
+    private final Resource resource;
+
+    public StoredContent(ContentRef ref, Resource resource) {
+        this.ref = ref;
+        this.resource = resource;
+    }
+
+    public ContentRef getRef() {
+        return ref;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return resource.getInputStream();
+    }
+
+    @Override
+    public ReadableByteChannel readableChannel() throws IOException {
+        return resource.readableChannel();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        if (ref.getSize() != null) {
+            return ref.getSize();
+        }
+        return resource.contentLength();
+    }
+
+    @Override
+    public boolean exists() {
+        return resource.exists();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Contenuto [" + ref.getContentKey() + "]";
+    }
+}
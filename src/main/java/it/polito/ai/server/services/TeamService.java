@@ -2,15 +2,21 @@ package it.polito.ai.server.services;
 
 import it.polito.ai.server.dtos.*;
 import it.polito.ai.server.entities.*;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.PathVariable;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface TeamService {
@@ -75,9 +81,13 @@ public interface TeamService {
 
     void activateTeam(Long teamId);
 
+    /*registra la conferma di un membro, restituisce true se era l'ultima attesa e il team è stato attivato*/
+    boolean confermaTeam(Long teamId);
+
     void evictTeam(Long teamId);
 
-    void evictTeams(List<Long> teamIds);
+    /*restituisce il numero di team eliminati*/
+    int evictTeams(Collection<Long> teamIds);
 
     boolean addTeacher(TeacherDTO teacher);
 
@@ -115,26 +125,44 @@ public interface TeamService {
     List<PropostaTeamDTO> getTeamRequests(String courseName, String sId);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    void setImageForStudent(String studentId, Byte[] image);
+    void setImageForStudent(String studentId, byte[] image);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    Byte[] getImageFromStudent(String studentId);
+    byte[] getImageFromStudent(String studentId, Integer dimensione);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    void setImageForTeacher(String teacherId, Byte[] image);
+    void setImageForTeacher(String teacherId, byte[] image);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    Byte[] getImageFromTeacher(String teacherId);
+    byte[] getImageFromTeacher(String teacherId, Integer dimensione);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    void createConsegna(String scadenza, String courseName, String nomeConsegna, Byte[] contenuto) throws ParseException;
+    void createConsegna(String scadenza, String courseName, String nomeConsegna, InputStream contenuto) throws ParseException;
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    boolean consegnaElaborato(Long consegnaId, String studentId, InputStream contenuto);
 
+    /*come consegnaElaborato ma la scadenza viene verificata rispetto a riferimento (inizio del caricamento a pezzi)*/
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    boolean consegnaElaborato(Long consegnaId, String studentId, Byte[] contenuto);
+    boolean consegnaElaborato(Long consegnaId, String studentId, InputStream contenuto, Timestamp riferimento);
+
+    /*chiamato da ScadenzeConsegne alla scadenza: chiude gli elaborati non consegnati*/
+    void chiudiConsegna(Long consegnaId);
+
+    /*chiude l'elaborato di uno studente rimasto aperto per un caricamento a pezzi non completato*/
+    void chiudiElaborato(Long consegnaId, String studentId);
+
+    /*chiamato da RicevuteLettura: scrive in una transazione un gruppo di ricevute di lettura in coda*/
+    void registraLetture(List<RicevuteLettura.Ricevuta> ricevute);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
     void correggereElaborato(Long elaboratoId, String courseName,
-                             Long consegnaId, Byte[] contenuto, String possibileRiconsegna, String voto);
+                             Long consegnaId, InputStream contenuto, String possibileRiconsegna, String voto);
+
+    /*corregge più elaborati della stessa consegna; le correzioni non valide vengono saltate e segnalate nel proprio esito*/
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    List<EsitoCorrezioneDTO> correggereElaborati(String courseName, Long consegnaId, List<CorrezioneDTO> correzioni,
+                                                 Map<String, InputStreamSource> files);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     List<ConsegnaDTO> getConsegne(String studentId, String courseName);
@@ -143,16 +171,28 @@ public interface TeamService {
     List<ConsegnaDTO> getConsegneForCourse(String courseName);
 
     @PreAuthorize("hasAnyRole('ROLE_TEACHER', 'ROLE_STUDENT')")
-    Byte[] getConsegnaForCourse(String consegnaId);
+    StoredContent getConsegnaForCourse(String consegnaId);
+
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    List<ElaboratoForTeacherDTO> getElaborati(String courseName, Long consegnaId, String stato);
+
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    ElaboratiChangesDTO getElaboratiSince(String courseName, Long consegnaId, Long since, String stato);
+
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    String getElaboratiETag(String courseName, Long consegnaId);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    List<ElaboratoForTeacherDTO> getElaborati(String courseName, Long consegnaId);
+    ValutazioneConsegnaDTO getValutazioneConsegna(String courseName, Long consegnaId, String stato);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    List<ElaboratoDTO> getUltimiElaborati(String courseName, Long consegnaId);
+    Page<ElaboratoDTO> getUltimiElaborati(String courseName, Long consegnaId, Pageable pageable);
 
     @PreAuthorize("hasRole('ROLE_TEACHER')")
-    Byte[] getElaborato(Long elaboratoId, String courseName, String studentId, Long consegnaId);
+    List<ElaboratoContentDTO> getUltimiElaboratiContent(String courseName, Long consegnaId);
+
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    StoredContent getElaborato(Long elaboratoId, String courseName, String studentId, Long consegnaId);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     VirtualMachineDTO manageVM(VirtualMachineDTO virtualMachineDTO, Long virtualMachineId, String studentId, String courseName);
@@ -176,7 +216,7 @@ public interface TeamService {
     List<ElaboratoDTO> getElaboratiConsegnatiFromStudentId(String courseName, Long consegnaId, String studentId);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    Byte[] leggiCorrezione(Long consegnaId, String studentId, String elabId);
+    StoredContent leggiCorrezione(Long consegnaId, String studentId, String elabId);
 
     @PreAuthorize("hasAnyRole('ROLE_TEACHER', 'ROLE_STUDENT')")
     ModelloVMDTO getModelloVM(String courseName);
@@ -194,10 +234,10 @@ public interface TeamService {
     List<ElaboratoDTO> getElaboratiForStudent(String studentId, Long consegnaId);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    Byte[] getConsegna(long consegnaId, String id);
+    StoredContent getConsegna(long consegnaId, String id);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
-    Byte[] getElaboratoById(String elaboratoId, String studentId);
+    StoredContent getElaboratoById(String elaboratoId, String studentId);
 
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     List<StudentDTO> getAvailableStudentsForVM(String studentId, String courseName, Long teamId, Long vmId);
@@ -208,4 +248,7 @@ public interface TeamService {
     @PreAuthorize("hasAnyRole('ROLE_STUDENT','ROLE_TEACHER')")
     byte[] getVM() throws IOException;
 
+    @PreAuthorize("hasRole('ROLE_TEACHER')")
+    StorageStatsDTO getStorageStats(String courseName);
+
 }
@@ -6,17 +6,22 @@ import it.polito.ai.server.dtos.*;
 import it.polito.ai.server.entities.*;
 import it.polito.ai.server.repositories.*;
 import it.polito.ai.server.services.exceptions.*;
-import org.apache.commons.lang3.ArrayUtils;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.transaction.Transactional;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.sql.Timestamp;
 import java.text.DateFormat;
@@ -67,6 +72,39 @@ public class TeamServiceImpl implements TeamService {
     @Autowired
     private VMRepository vmRepository;
 
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ContentBlobRepository contentBlobRepository;
+
+    @Autowired
+    private ImmaginiProfilo immaginiProfilo;
+
+    @Autowired
+    private ConsegneCache consegneCache;
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private StatoElaboratoRepository statoElaboratoRepository;
+
+    @Autowired
+    private ScadenzeConsegne scadenzeConsegne;
+
+    @Autowired
+    private RicevuteLettura ricevuteLettura;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ElaboratoArchiviatoRepository elaboratoArchiviatoRepository;
+
+    @Autowired
+    private IndiceTeam indiceTeam;
+
     private void checkAuthorizationId(String userId) {
 
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
@@ -148,6 +186,131 @@ public class TeamServiceImpl implements TeamService {
         }
     }
 
+    //rilancia ContentStoreException se non è possibile scrivere il contenuto
+    private ContentRef salvaContenuto(InputStream contenuto) {
+        if (contenuto == null) {
+            return null;
+        }
+        try {
+            return contentStore.save(contenuto);
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+    }
+
+    /*il contenuto viene solo referenziato: i byte si leggono quando il chiamante apre lo stream*/
+    private StoredContent leggiContenuto(ContentRef contenuto) {
+        if (contenuto == null) {
+            return null;
+        }
+        return contentStore.load(contenuto);
+    }
+
+    /*
+     * Salva un nuovo elaborato e aggiorna nella stessa transazione lo stato corrente della coppia (consegna, studente).
+     * Tutti gli elaborati devono essere salvati passando da qui.
+     */
+    private Elaborato salvaElaborato(Elaborato elaborato) {
+        elaboratoRepository.save(elaborato);
+        StatoElaborato stato = statoImplicito(elaborato.getConsegna().getId(), elaborato.getStudent().getId());
+        stato.aggiorna(elaborato);
+        statoElaboratoRepository.save(stato);
+        pubblica(elaborato);
+        return elaborato;
+    }
+
+    /*
+     * Notifica allo studente e ai docenti del corso (via EventiSse, dopo il commit) gli elaborati che cambiano
+     * quello che vedono: le consegne e le correzioni. Letture ed elaborati NULL non interessano a nessuno.
+     */
+    private void pubblica(Elaborato elaborato) {
+        if (!elaborato.getStato().equals("CONSEGNATO") && !elaborato.getStato().equals("RIVISTO")) {
+            return;
+        }
+        Course course = elaborato.getConsegna().getCourse();
+        Set<String> destinatari = new HashSet<>();
+        destinatari.add(elaborato.getStudent().getId());
+        course.getTeachers().forEach(t -> destinatari.add(t.getId()));
+
+        eventPublisher.publishEvent(new ElaboratoEvent(destinatari, ElaboratoEventDTO.builder()
+                .elaboratoId(elaborato.getId())
+                .consegnaId(elaborato.getConsegna().getId())
+                .courseName(course.getName())
+                .studentId(elaborato.getStudent().getId())
+                .stato(elaborato.getStato())
+                .dataCaricamento(elaborato.getDataCaricamento())
+                .build()));
+    }
+
+    //stato corrente della coppia (consegna, studente) con la riga bloccata fino alla fine della transazione
+    private Optional<StatoElaborato> statoPerAggiornare(Long consegnaId, String studentId) {
+        return statoElaboratoRepository.findForUpdate(consegnaId, studentId);
+    }
+
+    /*
+     * Come statoPerAggiornare, ma se lo studente non ha ancora nessuno stato per la consegna crea la riga NULL implicita.
+     * Va usato solo per studenti iscritti al corso della consegna.
+     */
+    private StatoElaborato statoImplicito(Long consegnaId, String studentId) {
+        statoElaboratoRepository.insertIfAbsent(StatoElaborato.chiave(consegnaId, studentId), consegnaId, studentId);
+        return statoPerAggiornare(consegnaId, studentId).orElseThrow(ElaboratoNotFoundException::new);
+    }
+
+    /*
+     * Elaborato per id: se non è più nella tabella principale lo cerco nell'archivio (percorso più lento,
+     * solo per lo storico delle consegne archiviate). Quello ricostruito dall'archivio serve solo in lettura.
+     */
+    private Optional<Elaborato> trovaElaborato(Long elaboratoId) {
+        Optional<Elaborato> elaborato = elaboratoRepository.findById(elaboratoId);
+        if (elaborato.isPresent()) {
+            return elaborato;
+        }
+        return elaboratoArchiviatoRepository.findById(elaboratoId).map(ElaboratoArchiviato::toElaborato);
+    }
+
+    /*
+     * Mette in coda la ricevuta di una lettura; se la coda è piena la scrive subito.
+     * Le GET di consegne e correzioni così non scrivono nulla nella propria transazione.
+     */
+    private void registraLettura(Long consegnaId, String studentId, Long revisioneId) {
+        RicevuteLettura.Ricevuta ricevuta = new RicevuteLettura.Ricevuta(consegnaId, studentId, revisioneId, Timestamp.from(Instant.now()));
+        if (!ricevuteLettura.registra(ricevuta)) {
+            applicaLettura(ricevuta);
+        }
+    }
+
+    /*
+     * Crea l'elaborato LETTO se lo stato è ancora quello visto al momento della lettura: NULL e, per la consegna,
+     * nessuna revisione o, per una correzione, proprio quella revisione come ultima. Applicarla due volte non ha effetto.
+     * La ricevuta di una consegna cancellata o di uno studente non più iscritto al corso viene ignorata.
+     */
+    private void applicaLettura(RicevuteLettura.Ricevuta ricevuta) {
+        if (!studentRepository.existsByIdAndCoursesConsegneId(ricevuta.getStudentId(), ricevuta.getConsegnaId())) {
+            return;
+        }
+        StatoElaborato stato = statoImplicito(ricevuta.getConsegnaId(), ricevuta.getStudentId());
+        if (!stato.getStato().equals("NULL") || !Objects.equals(ricevuta.getRevisioneId(), stato.getUltimaRevisioneId())) {
+            return;
+        }
+        Elaborato e = Elaborato.builder().stato("LETTO")
+                .student(studentRepository.getOne(ricevuta.getStudentId()))
+                .consegna(consegnaRepository.getOne(ricevuta.getConsegnaId()))
+                .contenuto(null)
+                .possibileRiconsegna("-")
+                .voto("-")
+                .dataCaricamento(ricevuta.getDataLettura())
+                .build();
+        salvaElaborato(e);
+    }
+
+    //scrive nella transazione corrente la lettura ancora in coda, prima di una transizione che richiede LETTO
+    private void applicaLetturaPendente(Long consegnaId, String studentId) {
+        ricevuteLettura.pendente(consegnaId, studentId).ifPresent(ricevuta -> {
+            applicaLettura(ricevuta);
+            ricevuteLettura.rimuoviDopoCommit(ricevuta);
+        });
+    }
+
 
     @Override
     public Optional<CourseDTO> getCourse(String name) {
@@ -343,17 +506,7 @@ public class TeamServiceImpl implements TeamService {
                 .getByCoursesContaining(courseRepository.getOne(courseName))
                 .stream()
                 .map(s -> {
-                    String teamName;
-                    List<Team> teams = s.getTeams();
-                    if (teams.isEmpty()) {
-                        teamName = "-";
-                    } else {
-                        Optional<String> opTeamName = teams.stream()
-                                .filter(t -> t.getCourse().getName().equals(courseName))
-                                .map(Team::getName)
-                                .findFirst();
-                        teamName = opTeamName.orElse("-");
-                    }
+                    String teamName = indiceTeam.getTeam(courseName, s.getId()).map(TeamDTO::getName).orElse("-");
                     return StudentWithTeamInfoDTO.builder().id(s.getId())
                             .firstName(s.getFirstName())
                             .name(s.getName())
@@ -504,7 +657,7 @@ public class TeamServiceImpl implements TeamService {
     @Override
     public List<StudentDTO> getStudentsInTeams(String courseName) {
         checkCourseName(courseName);
-        return courseRepository.getStudentsInTeams(courseName)
+        return studentRepository.findAllById(indiceTeam.getStudentiInTeam(courseName))
                 .stream()
                 .map(s -> modelMapper.map(s, StudentDTO.class))
                 .collect(Collectors.toList());
@@ -516,14 +669,12 @@ public class TeamServiceImpl implements TeamService {
         Course course = courseRepository.getOne(courseName);
 
         /*prendo gli studenti che fanno già parte di un team attivo*/
-        List<Student> students = course.getTeams().stream()
-                .filter(team -> team.getStatus() == 1)
-                .flatMap(t -> t.getMembers().stream()).collect(Collectors.toList());
+        Set<String> students = indiceTeam.getStudentiInTeamAttivo(courseName);
 
         /*ritorno la differenza tra tutti gli iscritti al corso e gli studenti presi sopra*/
         return course.getStudents()
                 .stream()
-                .filter(s -> !students.contains(s))
+                .filter(s -> !students.contains(s.getId()))
                 .map(s -> modelMapper.map(s, StudentDTO.class))
                 .collect(Collectors.toList());
     }
@@ -560,15 +711,31 @@ public class TeamServiceImpl implements TeamService {
             throw new InvalidTeamNameException();
         }
 
-        /*controllo che gli studenti di cui mi sono dati gli id esistano nel db*/
-        for (String studentId : memberIds) {
-            if (studentId == null) {
-                throw new StudentNotFoundException();
-            } else if (!studentRepository.existsById(studentId)) {
-                throw new StudentNotFoundException();
+        if (memberIds.contains(null)) {
+            throw new StudentNotFoundException();
+        }
+
+        /*
+         * una sola query per i controlli sui membri (esistenza e iscrizione al corso),
+         * l'appartenenza ad un team attivo del corso viene dall'indice dei team
+         */
+        Set<String> esistenti = new HashSet<>();
+        Set<String> iscritti = new HashSet<>();
+        if (!memberIds.isEmpty()) {
+            for (Object[] row : studentRepository.getValidazioneMembri(courseName, memberIds)) {
+                String studentId = (String) row[0];
+                esistenti.add(studentId);
+                if ((Long) row[1] > 0) {
+                    iscritti.add(studentId);
+                }
             }
         }
 
+        /*controllo che gli studenti di cui mi sono dati gli id esistano nel db*/
+        if (!esistenti.containsAll(memberIds)) {
+            throw new StudentNotFoundException();
+        }
+
         /*controllo che non ci siano studenti duplicati*/
         if (memberIds.stream().distinct().count() != memberIds.size()) {
             /*c'è almeno un duplicato*/
@@ -590,43 +757,17 @@ public class TeamServiceImpl implements TeamService {
 
 
         /*controllo che ogni studente di members sia iscritto al corso courseId*/
-        List<String> enrolledIds = this.getEnrolledStudents(courseName)
-                .stream()
-                .map(StudentDTO::getId)
-                .collect(Collectors.toList());
-
-        for (String studentId : memberIds) {
-            if (!enrolledIds.contains(studentId)) {
-                throw new StudentNotEnrolledException();
-            }
+        if (!iscritti.containsAll(memberIds)) {
+            throw new StudentNotEnrolledException();
         }
 
-
         /*controllo che ogni members non faccia già parte di un altro team del corso*/
-        List<Long> existingTeamsIds = course.getTeams().stream().map(Team::getId).collect(Collectors.toList());
-
-        List<String> alreadyInATeam = teamRepository.findAllById(existingTeamsIds).stream()
-                .filter(t -> t.getStatus() == 1)
-                .map(Team::getMembers)
-                .flatMap(Collection::stream)
-                .distinct()
-                .map(Student::getId)
-                .collect(Collectors.toList());
-
-        for (String studentId : memberIds) {
-            if (alreadyInATeam.contains(studentId)) {
-                throw new StudentAlreadyInATeamException();
-            }
+        if (!Collections.disjoint(indiceTeam.getStudentiInTeamAttivo(courseName), memberIds)) {
+            throw new StudentAlreadyInATeamException();
         }
 
-        boolean trovato = false;
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        for (String sId : memberIds) {
-            if (sId.equals(userDetails.getUsername())) {
-                trovato = true;
-            }
-        }
-        if (!trovato) {
+        if (!memberIds.contains(userDetails.getUsername())) {
             //lo studente che ha proposto il team non fa parte del team: non deve capitare
             throw new ForbiddenOperationException();
         }
@@ -640,9 +781,11 @@ public class TeamServiceImpl implements TeamService {
         teamWithoutId.setCourse(course);
         teamWithoutId.setName(name);
         teamWithoutId.setStatus(0);
+        teamWithoutId.setPendingConfirmations(memberIds.size() - 1);
         teamWithoutId.setProponenteId(userDetails.getUsername());
         teamWithoutId.setMembers(students);
         Team teamWithId = teamRepository.save(teamWithoutId);
+        indiceTeam.proposto(teamWithId.getId(), courseName, name, userDetails.getUsername(), memberIds);
         TeamDTO teamDTO = modelMapper.map(teamWithId, TeamDTO.class);
         /*
         Lo studente che ha proposto il Team, automaticamente aderisce al Team quindi non lo metto in quelli a cui deve essere assciata una proposta per questo team
@@ -660,6 +803,19 @@ public class TeamServiceImpl implements TeamService {
         checkTeamId(teamId);
         Team team = teamRepository.getOne(teamId);
         team.setStatus(1);
+        indiceTeam.attivato(teamId);
+    }
+
+    @Override
+    public boolean confermaTeam(Long teamId) {
+        if (teamRepository.decrementaConferme(teamId) == 0) {
+            return false;
+        }
+        if (teamRepository.attivaSeConfermato(teamId) == 0) {
+            return false;
+        }
+        indiceTeam.attivato(teamId);
+        return true;
     }
 
     @Override
@@ -667,22 +823,25 @@ public class TeamServiceImpl implements TeamService {
         checkTeamId(teamId);
         Team team = teamRepository.getOne(teamId);
         teamRepository.delete(team);
+        indiceTeam.eliminati(Collections.singletonList(teamId));
     }
 
     @Override
-    public void evictTeams(List<Long> teamIds) {
+    public int evictTeams(Collection<Long> teamIds) {
         if (teamIds == null) {
-            return;
+            return 0;
         }
-        /*controllo che i teams di cui mi sono dati gli id esistano nel db*/
-        for (Long teamId : teamIds) {
-            if (teamId == null) {
-                teamIds.remove(teamId);
-            } else if (!teamRepository.existsById(teamId)) {
-                teamIds.remove(teamId);
-            }
+        /*gli id null o di team che non esistono più vengono semplicemente ignorati dalle delete*/
+        Set<Long> ids = teamIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return 0;
         }
-        teamRepository.deleteAll(teamRepository.findAllById(teamIds));
+        tokenRepository.deleteAllByTeamIds(ids);
+        teamRepository.deleteOwnersByTeamIds(ids);
+        teamRepository.deleteVirtualMachinesByTeamIds(ids);
+        teamRepository.deleteMembersByTeamIds(ids);
+        indiceTeam.eliminati(ids);
+        return teamRepository.deleteAllByIds(ids);
     }
 
 
@@ -758,15 +917,29 @@ public class TeamServiceImpl implements TeamService {
             course.removeStudent(s);
         }
 
-        course.getConsegne().stream().flatMap(c -> c.getElaborati().stream()).forEach(el -> elaboratoRepository.delete(el));
+        statoElaboratoRepository.deleteAllByCourse(courseName);
+        course.getConsegne().forEach(c -> uploadSessionRepository.deleteAllByConsegna(c));
+        elaboratoArchiviatoRepository.findAllByConsegnaCourseName(courseName).forEach(el -> {
+            contentStore.release(el.getContenuto());
+            elaboratoArchiviatoRepository.delete(el);
+        });
+        course.getConsegne().stream().flatMap(c -> c.getElaborati().stream()).forEach(el -> {
+            contentStore.release(el.getContenuto());
+            elaboratoRepository.delete(el);
+        });
 
-        course.getConsegne().forEach(c -> consegnaRepository.delete(c));
+        course.getConsegne().forEach(c -> {
+            contentStore.release(c.getContenuto());
+            consegneCache.invalida(c.getId());
+            consegnaRepository.delete(c);
+        });
 
         course.getTeams().forEach(t -> {
                     t.getVirtualMachines().forEach(vm -> vmRepository.delete(vm));
                     teamRepository.delete(t);
                 }
         );
+        indiceTeam.corsoEliminato(courseName);
         modelloVMRepository.delete(course.getModelloVM());
         courseRepository.delete(course);
     }
@@ -841,11 +1014,20 @@ public class TeamServiceImpl implements TeamService {
                         .forEach(virtualMachine -> vmRepository.delete(virtualMachine));
 
                 teamRepository.delete(team);
+                indiceTeam.eliminati(Collections.singletonList(team.getId()));
             }
-            /*cancello tutti i suoi elaborati*/
+            /*cancello tutti i suoi elaborati (e il loro stato corrente)*/
+            statoElaboratoRepository.deleteAllByCourseAndStudent(course.getName(), studentId);
+            elaboratoArchiviatoRepository.findAllByConsegnaCourseNameAndStudentId(course.getName(), studentId).forEach(elaborato -> {
+                contentStore.release(elaborato.getContenuto());
+                elaboratoArchiviatoRepository.delete(elaborato);
+            });
             student.getElaborati().stream()
                     .filter(elaborato -> elaborato.getConsegna().getCourse().getName().equals(course.getName()))
-                    .forEach(elaborato -> elaboratoRepository.delete(elaborato));
+                    .forEach(elaborato -> {
+                        contentStore.release(elaborato.getContenuto());
+                        elaboratoRepository.delete(elaborato);
+                    });
 
             course.removeStudent(student);
             return true;
@@ -1024,96 +1206,88 @@ public class TeamServiceImpl implements TeamService {
             throw new CourseNotFoundException();
         }
 
-        Course course = courseRepository.findById(courseName).get();
-
-
-        List<Token> tokens = tokenRepository.findAllByStudent(studentRepository.getOne(sId));
+        /*
+         * tre query in tutto, indipendentemente dal numero di proposte e di membri:
+         * i token dello studente, i team con corso e membri, i token ancora in attesa di quei team
+         */
+        Map<Long, String> tokenByTeam = new LinkedHashMap<>();
+        for (Object[] row : tokenRepository.getTokenIdsByStudentId(sId)) {
+            tokenByTeam.put((Long) row[1], (String) row[0]);
+        }
 
         List<PropostaTeamDTO> propostaTeamDTOS = new ArrayList<>();
+        if (tokenByTeam.isEmpty()) {
+            return propostaTeamDTOS;
+        }
 
-        for (Token t : tokens) {
-
-            /*per ogni token associato a questo studente creo l'oggetto propostaTeamDTO a questo associato
-             * solo se il corso del team associato al token corrisponde al corso in questione
-             * */
-
-            PropostaTeamDTO propostaTeamDTO = new PropostaTeamDTO();
-            if (!teamRepository.existsById(t.getTeamId())) {
-                throw new TeamNotFoundException();
-            }
-
-
-            Team team = teamRepository.getOne(t.getTeamId());
-
-            if (team.getCourse().getName().equals(courseName)) {
-
-
-                TeamDTO teamDTO = modelMapper.map(team, TeamDTO.class);
-
-                propostaTeamDTO.setTeamDTO(teamDTO);
-                propostaTeamDTO.setToken(t.getId());
-
-                List<StudentWithStatusDTO> studentWithStatusDTOS = new ArrayList<>();
-
-                propostaTeamDTO.setStudentWithStatusDTOS(studentWithStatusDTOS);
-
-                for (Student s : team.getMembers()) {
+        Map<Long, Team> teams = teamRepository.getTeamsWithMembers(tokenByTeam.keySet()).stream()
+                .collect(Collectors.toMap(Team::getId, t -> t));
+        if (teams.size() < tokenByTeam.size()) {
+            throw new TeamNotFoundException();
+        }
 
-                    StudentWithStatusDTO studentWithStatusDTO = StudentWithStatusDTO.
-                            builder().id(s.getId()).name(s.getName()).firstName(s.getFirstName()).build();
+        /*solo i team del corso in questione*/
+        List<Long> teamIds = tokenByTeam.keySet().stream()
+                .filter(id -> teams.get(id).getCourse().getName().equals(courseName))
+                .collect(Collectors.toList());
+        if (teamIds.isEmpty()) {
+            return propostaTeamDTOS;
+        }
 
-                    studentWithStatusDTOS.add(studentWithStatusDTO);
-                /*
-                 risultato dell'if è true se non ha ancora nè confermato nè rifiutato
-                 */
-                    if (tokenRepository.existsByStudentEqualsAndTeamIdEquals(s, team.getId())) {
-                        studentWithStatusDTO.setStatus("In attesa di risposta");
+        /*chi ha ancora un token per il team non ha nè confermato nè rifiutato*/
+        Set<String> inAttesa = new HashSet<>();
+        for (Object[] row : tokenRepository.getPendentiByTeamIds(teamIds)) {
+            inAttesa.add(row[0] + "/" + row[1]);
+        }
 
-                    } else {
-                        studentWithStatusDTO.setStatus("Partecipazione Confermata");
-                    }
+        for (Long teamId : teamIds) {
+            Team team = teams.get(teamId);
 
+            PropostaTeamDTO propostaTeamDTO = new PropostaTeamDTO();
+            propostaTeamDTO.setTeamDTO(modelMapper.map(team, TeamDTO.class));
+            propostaTeamDTO.setToken(tokenByTeam.get(teamId));
 
-                }
-                propostaTeamDTOS.add(propostaTeamDTO);
+            List<StudentWithStatusDTO> studentWithStatusDTOS = new ArrayList<>();
+            propostaTeamDTO.setStudentWithStatusDTOS(studentWithStatusDTOS);
 
+            for (Student s : team.getMembers()) {
+                studentWithStatusDTOS.add(StudentWithStatusDTO.builder()
+                        .id(s.getId()).name(s.getName()).firstName(s.getFirstName())
+                        .status(inAttesa.contains(teamId + "/" + s.getId()) ? "In attesa di risposta" : "Partecipazione Confermata")
+                        .build());
             }
-
+            propostaTeamDTOS.add(propostaTeamDTO);
         }
 
         return propostaTeamDTOS;
     }
 
     @Override
-    public void setImageForStudent(String studentId, Byte[] image) {
+    public void setImageForStudent(String studentId, byte[] image) {
         checkStudentId(studentId);
-        Student student = studentRepository.getOne(studentId);
-        student.setImage(image);
+        immaginiProfilo.salva(studentId, image);
     }
 
     @Override
-    public Byte[] getImageFromStudent(String studentId) {
+    public byte[] getImageFromStudent(String studentId, Integer dimensione) {
         checkStudentId(studentId);
-        Student student = studentRepository.getOne(studentId);
-        return student.getImage();
+        return immaginiProfilo.leggi(studentId, dimensione);
     }
 
     @Override
-    public void setImageForTeacher(String teacherId, Byte[] image) {
+    public void setImageForTeacher(String teacherId, byte[] image) {
         checkTeacherId(teacherId);
-        Teacher teacher = teacherRepository.getOne(teacherId);
-        teacher.setImage(image);
+        immaginiProfilo.salva(teacherId, image);
     }
 
     @Override
-    public Byte[] getImageFromTeacher(String teacherId) {
+    public byte[] getImageFromTeacher(String teacherId, Integer dimensione) {
         checkTeacherId(teacherId);
-        Teacher teacher = teacherRepository.getOne(teacherId);
-        return teacher.getImage();
+        return immaginiProfilo.leggi(teacherId, dimensione);
     }
 
     @Override
-    public void createConsegna(String scadenza, String courseName, String nomeConsegna, Byte[] contenuto) throws ParseException {
+    public void createConsegna(String scadenza, String courseName, String nomeConsegna, InputStream contenuto) throws ParseException {
         checkCourseName(courseName);
         Course course = courseRepository.getOne(courseName);
 
@@ -1148,29 +1322,27 @@ public class TeamServiceImpl implements TeamService {
                 .nomeConsegna(nomeConsegna)
                 .rilascio(rilascio)
                 .elaborati(new ArrayList<>())
-                .contenuto(contenuto)
+                .contenuto(salvaContenuto(contenuto))
                 .course(course)
+                .chiusa(false)
                 .build();
         consegnaRepository.save(consegna);
 
-        // Creo un elaborato con stato NULL per ogni studente.
-        List<Student> students = course.getStudents();
-        Timestamp forElaborato = new Timestamp(System.currentTimeMillis());
-        students.forEach(student -> {
-            Elaborato elaborato = Elaborato.builder()
-                    .consegna(consegna)
-                    .dataCaricamento(forElaborato)
-                    .stato("NULL")
-                    .student(student)
-                    .voto("-")
-                    .possibileRiconsegna("-")
-                    .build();
-            elaboratoRepository.save(elaborato);
+        /*
+         * non creo nessun elaborato per gli studenti: finché uno studente non apre la consegna
+         * la mancanza di stato ed elaborati vale come stato NULL
+         * */
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                scadenzeConsegne.pianifica(consegna.getId(), scadenzaTimestamp);
+            }
         });
     }
 
     @Override
-    public Byte[] getConsegna(long consegnaId, String studentId) {
+    public StoredContent getConsegna(long consegnaId, String studentId) {
 
         checkConsegnaId(consegnaId);
         checkStudentId(studentId);
@@ -1178,41 +1350,31 @@ public class TeamServiceImpl implements TeamService {
         checkAuthorizationId(studentId);
 
 
-        Student student = studentRepository.getOne(studentId);
         Consegna consegna = consegnaRepository.getOne(consegnaId);
 
-        List<Elaborato> listaElaborati = elaboratoRepository.findAllByConsegnaAndStudent(consegna, student);
-
-        /*la prima volta che lo studente legge la consegna fa si che si crei un elaborato con stato LETTO*/
-        if (listaElaborati.size() == 1 && listaElaborati.get(0).getStato().equals("NULL")) {
-            Instant instant = Instant.now();
-            Timestamp dataLettura = Timestamp.from(instant);
-
-            Elaborato e = Elaborato.builder().stato("LETTO")
-                    .student(student)
-                    .consegna(consegna)
-                    .contenuto(null)
-                    .possibileRiconsegna("-")
-                    .voto("-")
-                    .dataCaricamento(dataLettura)
-                    .build();
+        /*solo gli iscritti al corso hanno uno stato: per loro l'assenza della riga vale come NULL*/
+        if (!studentRepository.existsByIdAndCoursesName(studentId, consegna.getCourse().getName())) {
+            return consegneCache.get(consegna);
+        }
+        Optional<StatoElaborato> stato = statoElaboratoRepository.findByConsegnaIdAndStudentId(consegnaId, studentId);
 
-            elaboratoRepository.save(e);
+        /*
+         * la prima volta che lo studente legge la consegna (NULL e nessuna revisione) fa si che si crei un elaborato con stato LETTO;
+         * l'elaborato viene scritto in differita da RicevuteLettura
+         * */
+        if (!stato.isPresent() || (stato.get().getStato().equals("NULL") && stato.get().getUltimaRevisioneId() == null)) {
+            registraLettura(consegnaId, studentId, null);
         }
 
 
-        return consegna.getContenuto();
+        return consegneCache.get(consegna);
     }
 
     @Override
-    public Byte[] getElaboratoById(String elaboratoId, String studentId) {
+    public StoredContent getElaboratoById(String elaboratoId, String studentId) {
         checkAuthorizationId(studentId);
-        if (elaboratoRepository.existsById(Long.parseLong(elaboratoId))) {
-            Elaborato e = elaboratoRepository.getOne(Long.parseLong(elaboratoId));
-            return e.getContenuto();
-        } else {
-            throw new ElaboratoNotFoundException();
-        }
+        Elaborato e = trovaElaborato(Long.parseLong(elaboratoId)).orElseThrow(ElaboratoNotFoundException::new);
+        return leggiContenuto(e.getContenuto());
     }
 
     @Override
@@ -1268,20 +1430,18 @@ public class TeamServiceImpl implements TeamService {
         Student student = studentRepository.getOne(studentId);
 
         checkCourseName(courseName);
-        Course course = courseRepository.getOne(courseName);
 
         checkAuthorizationId(studentId);
 
-        List<Team> teams = teamRepository.getAllByCourseEquals(course)
+        List<TeamDTO> teams = indiceTeam.getTeams(courseName, studentId)
                 .stream()
-                .filter(t -> t.getMembers().contains(student))
                 .filter(t -> t.getStatus() == 0)
                 .collect(Collectors.toList());
 
         boolean accettato = false;
         int cont = 0;
 
-        for (Team t : teams) {
+        for (TeamDTO t : teams) {
             if (!tokenRepository.existsByStudentEqualsAndTeamIdEquals(student, t.getId())) {
                 cont++;
                 accettato = true;
@@ -1306,12 +1466,12 @@ public class TeamServiceImpl implements TeamService {
                 .creator("p")
                 .build();
 
-        return Base64.getEncoder().encode(ArrayUtils.toPrimitive(vm.getScreen()));
+        return Base64.getEncoder().encode(vm.getScreen());
     }
 
 
     @Override
-    public Byte[] leggiCorrezione(Long consegnaId, String studentId, String elabId) {
+    public StoredContent leggiCorrezione(Long consegnaId, String studentId, String elabId) {
 
         checkConsegnaId(consegnaId);
 
@@ -1319,41 +1479,19 @@ public class TeamServiceImpl implements TeamService {
 
         checkAuthorizationId(studentId);
 
-        if (!elaboratoRepository.existsById(Long.parseLong(elabId))) {
-            throw new ElaboratoNotFoundException();
-        }
-
-        Student student = studentRepository.getOne(studentId);
-        Consegna consegna = consegnaRepository.getOne(consegnaId);
-
-        List<Elaborato> elaboratiOrdinati = elaboratoRepository.findAllByConsegnaAndStudent(consegna, student)
-                .stream()
-                .sorted(Comparator.comparing(Elaborato::getDataCaricamento).reversed())
-                .collect(Collectors.toList());
-        Elaborato correzione = elaboratiOrdinati.get(1);
-        Elaborato elaborato = elaboratiOrdinati.get(0);
-
-        /*se la variabile correzione è una correzione e se è la correzione su cui ha cliccato l'utente e se dopo c'è un elaborato con stato NULL*/
-        if (correzione.getStato().equals("RIVISTO") && correzione.getId() == Long.parseLong(elabId) && elaborato.getStato().equals("NULL")) {
-
-            /*allora creo un elaborato con stato LETTO perchè è la prima volta che lo studente legge questa correzione*/
-            Instant instant = Instant.now();
-            Timestamp dataLettura = Timestamp.from(instant);
-
-            Elaborato e = Elaborato.builder().stato("LETTO")
-                    .student(student)
-                    .consegna(consegna)
-                    .possibileRiconsegna("-")
-                    .voto("-")
-                    .dataCaricamento(dataLettura)
-                    .build();
+        Elaborato correzione = trovaElaborato(Long.parseLong(elabId)).orElseThrow(ElaboratoNotFoundException::new);
 
-            elaboratoRepository.save(e);
+        Optional<StatoElaborato> stato = statoElaboratoRepository.findByConsegnaIdAndStudentId(consegnaId, studentId);
 
+        /*se l'ultima revisione è la correzione su cui ha cliccato l'utente e dopo c'è un elaborato con stato NULL*/
+        if (stato.isPresent() && stato.get().getStato().equals("NULL")
+                && Long.valueOf(elabId).equals(stato.get().getUltimaRevisioneId())) {
 
+            /*allora registro la lettura (elaborato LETTO) perchè è la prima volta che lo studente legge questa correzione*/
+            registraLettura(consegnaId, studentId, Long.valueOf(elabId));
         }
 
-        return elaboratoRepository.getOne(Long.parseLong(elabId)).getContenuto();
+        return leggiContenuto(correzione.getContenuto());
 
     }
 
@@ -1383,11 +1521,7 @@ public class TeamServiceImpl implements TeamService {
         checkStudentId(studentId);
         checkAuthorizationId(studentId);
 
-        Student student = studentRepository.getOne(studentId);
-
-        Optional<Team> team = student.getTeams().stream().filter(t -> t.getCourse().getName().equals(courseName)).findFirst();
-
-        return team.map(value -> modelMapper.map(value, TeamDTO.class)).orElse(null);
+        return indiceTeam.getTeam(courseName, studentId).orElse(null);
     }
 
     @Override
@@ -1422,16 +1556,33 @@ public class TeamServiceImpl implements TeamService {
 
         Consegna consegna = consegnaRepository.getOne(consegnaId);
 
-        return elaboratoRepository.findAllByConsegnaAndStudent(consegna, student)
+        List<Elaborato> storico = elaboratoRepository.findAllByConsegnaAndStudent(consegna, student);
+        if (consegna.isArchiviata()) {
+            elaboratoArchiviatoRepository.findAllByConsegnaIdAndStudentId(consegnaId, studentId)
+                    .forEach(e -> storico.add(e.toElaborato()));
+            storico.sort(Comparator.comparing(Elaborato::getDataCaricamento).thenComparing(Elaborato::getId));
+        }
+        List<ElaboratoDTO> elaborati = storico
                 .stream()
                 .map(s -> modelMapper.map(s, ElaboratoDTO.class))
                 .collect(Collectors.toList());
 
+        /*chi non ha ancora aperto la consegna non ha elaborati: mostro lo stato NULL implicito*/
+        if (elaborati.isEmpty() && studentRepository.existsByIdAndCoursesName(studentId, consegna.getCourse().getName())) {
+            elaborati.add(new ElaboratoDTO(null, "NULL", consegna.getRilascio(), studentId, "-", "-"));
+        }
+        return elaborati;
+
+
+    }
 
+    @Override
+    public boolean consegnaElaborato(Long consegnaId, String studentId, InputStream contenuto) {
+        return consegnaElaborato(consegnaId, studentId, contenuto, null);
     }
 
     @Override
-    public boolean consegnaElaborato(Long consegnaId, String studentId, Byte[] contenuto) {
+    public boolean consegnaElaborato(Long consegnaId, String studentId, InputStream contenuto, Timestamp riferimento) {
 
         checkConsegnaId(consegnaId);
         checkStudentId(studentId);
@@ -1443,34 +1594,30 @@ public class TeamServiceImpl implements TeamService {
         Student student = studentRepository.getOne(studentId);
         Consegna consegna = consegnaRepository.getOne(consegnaId);
 
-        if (consegna.getScadenza().before(dataConsegna)) {
+        if (consegna.getScadenza().before(riferimento != null ? riferimento : dataConsegna)) {
             throw new InvalidElaboratoException();
         }
 
-        List<Elaborato> elaborati = elaboratoRepository.findAllByConsegnaAndStudent(consegna, student);
-
-        List<Elaborato> elaboratiOrdinati = elaborati.stream().
-                sorted(Comparator.comparing(Elaborato::getDataCaricamento).reversed())
-                .collect(Collectors.toList());
-        Elaborato ultimoElaborato = elaboratiOrdinati.get(0);
+        applicaLetturaPendente(consegnaId, studentId);
+        StatoElaborato stato = statoPerAggiornare(consegnaId, studentId).orElseThrow(ElaboratoNotFoundException::new);
 
         //controllo se l'ultimo Elaborato ha stato LETTO
         //Nel caso in cui uno provi a consegnare senza aver letto o
         // avendo già consegnato viene scatenata questa eccezione
-        if (!ultimoElaborato.getStato().equals("LETTO")) {
+        if (!stato.getStato().equals("LETTO")) {
             throw new ElaboratoNotFoundException();
         }
 
         Elaborato e = Elaborato.builder().stato("CONSEGNATO")
                 .student(student)
                 .consegna(consegna)
-                .contenuto(contenuto)
+                .contenuto(salvaContenuto(contenuto))
                 .possibileRiconsegna("-")
                 .voto("-")
                 .dataCaricamento(dataConsegna)
                 .build();
 
-        elaboratoRepository.save(e);
+        salvaElaborato(e);
 
         return true;
 
@@ -1478,7 +1625,7 @@ public class TeamServiceImpl implements TeamService {
 
     @Override
     public void correggereElaborato(Long elaboratoId, String courseName,
-                                    Long consegnaId, Byte[] contenuto,
+                                    Long consegnaId, InputStream contenuto,
                                     String possibileRiconsegna, String voto) {
 
         checkCourseName(courseName);
@@ -1522,30 +1669,25 @@ public class TeamServiceImpl implements TeamService {
 
         //cerco l'ultimo elaborato caricato che sia associato a questo studente e a questa consegna.
         //La correzione può essere fatta solo se l'ultimo elaborato caricato ha stato CONSEGNATO
-        List<Elaborato> elaborati = elaboratoRepository.findAllByConsegnaAndStudent(elaborato.getConsegna(), elaborato.getStudent());
-
-        List<Elaborato> elaboratiOrdinati = elaborati.stream().
-                sorted(Comparator.comparing(Elaborato::getDataCaricamento).reversed())
-                .collect(Collectors.toList());
-        Elaborato ultimoElaborato = elaboratiOrdinati.get(0);
+        StatoElaborato stato = statoPerAggiornare(consegnaId, studentId).orElseThrow(InvalidElaboratoException::new);
 
         //controllo se l'ultimo Elaborato ha stato CONSEGNATO
 
-        if (!ultimoElaborato.getStato().equals("CONSEGNATO")) {
+        if (!stato.getStato().equals("CONSEGNATO")) {
             throw new InvalidElaboratoException();
         }
 
 
         Elaborato revisione = Elaborato.builder()
                 .dataCaricamento(Timestamp.from(Instant.now()))
-                .contenuto(contenuto)
-                .consegna(ultimoElaborato.getConsegna())
-                .student(ultimoElaborato.getStudent())
+                .contenuto(salvaContenuto(contenuto))
+                .consegna(consegna)
+                .student(student)
                 .possibileRiconsegna(possibileRiconsegna)
                 .voto(voto)
                 .stato("RIVISTO").build();
 
-        elaboratoRepository.save(revisione);
+        salvaElaborato(revisione);
 
         /*
          Ora nel caso sia possibile una riconsegna creo un nuovo elaborato con stato NULL. Quando lo studente leggerà
@@ -1560,9 +1702,112 @@ public class TeamServiceImpl implements TeamService {
                     .possibileRiconsegna("-")
                     .voto("-")
                     .build();
-            elaboratoRepository.save(elaboratoNull);
+            salvaElaborato(elaboratoNull);
+        }
+
+    }
+
+    @Override
+    public List<EsitoCorrezioneDTO> correggereElaborati(String courseName, Long consegnaId, List<CorrezioneDTO> correzioni,
+                                                        Map<String, InputStreamSource> files) {
+        checkCourseName(courseName);
+        checkConsegnaId(consegnaId);
+
+        Consegna consegna = consegnaRepository.getOne(consegnaId);
+        if (!courseName.equals(consegna.getCourse().getName())) {
+            throw new InvalidConsegnaException(); //la consegna indicata nel path non appartiene al corso
+        }
+
+        //Controllo una volta sola se chi sta revisionando è un professore titolare del corso
+        String teacherId = ((UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getUsername();
+        checkTeacherInCourse(teacherId, courseName);
+
+        /*elaborati e stati correnti di tutti gli studenti coinvolti, con due query (gli stati restano bloccati fino al commit)*/
+        Set<Long> ids = correzioni.stream().map(CorrezioneDTO::getElaboratoId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Long, Elaborato> elaborati = ids.isEmpty() ? Collections.emptyMap() : elaboratoRepository.getElaboratiWithStudent(consegnaId, ids)
+                .stream().collect(Collectors.toMap(Elaborato::getId, e -> e));
+        Set<String> studentIds = elaborati.values().stream().map(e -> e.getStudent().getId()).collect(Collectors.toSet());
+        Map<String, StatoElaborato> stati = studentIds.isEmpty() ? Collections.emptyMap() : statoElaboratoRepository.findAllForUpdateByStudentIds(consegnaId, studentIds)
+                .stream().collect(Collectors.toMap(s -> s.getStudent().getId(), s -> s));
+
+        Timestamp dataRevisione = Timestamp.from(Instant.now());
+        Timestamp dataNull = Timestamp.from(Instant.now().plus(Long.parseLong("2"), ChronoUnit.SECONDS));
+
+        List<EsitoCorrezioneDTO> esiti = new ArrayList<>();
+        List<Elaborato> nuovi = new ArrayList<>();
+        List<StatoElaborato> daAggiornare = new ArrayList<>();
+        Map<Integer, Elaborato> revisioni = new HashMap<>();
+        Set<String> corretti = new HashSet<>();
+
+        for (CorrezioneDTO correzione : correzioni) {
+            Elaborato elaborato = elaborati.get(correzione.getElaboratoId());
+            EsitoCorrezioneDTO esito = EsitoCorrezioneDTO.builder()
+                    .elaboratoId(correzione.getElaboratoId())
+                    .studentId(elaborato != null ? elaborato.getStudent().getId() : null)
+                    .build();
+            esiti.add(esito);
+            try {
+                if (elaborato == null) {
+                    throw new ElaboratoNotFoundException();
+                }
+                String possibileRiconsegna = correzione.getPossibileRiconsegna() != null ? correzione.getPossibileRiconsegna().toLowerCase() : null;
+                String voto = correzione.getVoto();
+                //stessi controlli di correggereElaborato: il voto esiste solo se non è possibile riconsegnare
+                if (voto == null || !("true".equals(possibileRiconsegna) || "false".equals(possibileRiconsegna))
+                        || (possibileRiconsegna.equals("true") && !voto.equals("-")) || (possibileRiconsegna.equals("false") && voto.equals("-"))) {
+                    throw new InvalidVotoException();
+                }
+                StatoElaborato stato = stati.get(elaborato.getStudent().getId());
+                //la correzione può essere fatta solo se l'ultimo elaborato caricato ha stato CONSEGNATO (una sola volta per studente)
+                if (!elaborato.getStato().equals("CONSEGNATO") || stato == null || !stato.getStato().equals("CONSEGNATO")
+                        || !corretti.add(elaborato.getStudent().getId())) {
+                    throw new InvalidElaboratoException();
+                }
+                InputStreamSource file = correzione.getFile() != null ? files.get(correzione.getFile()) : null;
+                if (correzione.getFile() != null && file == null) {
+                    throw new InvalidElaboratoException();
+                }
+
+                Elaborato revisione = Elaborato.builder()
+                        .dataCaricamento(dataRevisione)
+                        .contenuto(file != null ? salvaContenuto(file.getInputStream()) : null)
+                        .consegna(consegna)
+                        .student(elaborato.getStudent())
+                        .possibileRiconsegna(possibileRiconsegna)
+                        .voto(voto)
+                        .stato("RIVISTO").build();
+                revisioni.put(esiti.size() - 1, revisione);
+                nuovi.add(revisione);
+                daAggiornare.add(stato);
+
+                /*come in correggereElaborato, se è possibile riconsegnare segue un elaborato NULL*/
+                if (possibileRiconsegna.equals("true")) {
+                    nuovi.add(Elaborato.builder()
+                            .consegna(consegna)
+                            .stato("NULL")
+                            .student(elaborato.getStudent())
+                            .dataCaricamento(dataNull)
+                            .possibileRiconsegna("-")
+                            .voto("-")
+                            .build());
+                    daAggiornare.add(stato);
+                }
+            } catch (TeamServiceException | IOException e) {
+                esito.setErrore(e.getClass().getSimpleName());
+            }
         }
 
+        /*tutti i nuovi elaborati in un'unica transazione, con insert a gruppi (hibernate.jdbc.batch_size)*/
+        elaboratoRepository.saveAll(nuovi);
+        for (int i = 0; i < nuovi.size(); i++) {
+            daAggiornare.get(i).aggiorna(nuovi.get(i));
+            pubblica(nuovi.get(i));
+        }
+        revisioni.forEach((i, revisione) -> {
+            esiti.get(i).setCorretto(true);
+            esiti.get(i).setRevisioneId(revisione.getId());
+        });
+        return esiti;
     }
 
     @Override
@@ -1602,102 +1847,136 @@ public class TeamServiceImpl implements TeamService {
     }
 
     @Override
-    public Byte[] getConsegnaForCourse(String consegnaId) {
+    public StoredContent getConsegnaForCourse(String consegnaId) {
         checkConsegnaId(Long.parseLong(consegnaId));
         Consegna c = consegnaRepository.getOne(Long.parseLong(consegnaId));
-        return c.getContenuto();
+        return consegneCache.get(c);
 
     }
 
     @Override
-    public List<ElaboratoForTeacherDTO> getElaborati(String courseName, Long consegnaId) {
-
-        checkCourseName(courseName);
+    public List<ElaboratoForTeacherDTO> getElaborati(String courseName, Long consegnaId, String stato) {
+        checkUltimiElaborati(courseName, consegnaId);
+        return elaboratiForTeacher(consegnaId, courseName, stato);
+    }
 
-        checkConsegnaId(consegnaId);
+    //per le consegne archiviate aggiunge lo storico spostato nell'archivio, nello stesso ordine della query principale
+    private List<ElaboratoForTeacherDTO> elaboratiForTeacher(Long consegnaId, String courseName, String stato) {
+        List<ElaboratoForTeacherDTO> elaborati = elaboratoRepository.getElaboratiForTeacher(consegnaId, courseName, stato);
+        if (!consegnaRepository.getOne(consegnaId).isArchiviata()) {
+            return elaborati;
+        }
+        elaborati.addAll(elaboratoArchiviatoRepository.getElaboratiForTeacher(consegnaId, stato));
+        elaborati.sort(Comparator.comparing(ElaboratoForTeacherDTO::getStudentId)
+                .thenComparing(ElaboratoForTeacherDTO::getDataCaricamento)
+                .thenComparing(ElaboratoForTeacherDTO::getId, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return elaborati;
+    }
 
-        //Controllo se chi sta ottenendo gli elaborati è un professore titolare del corso
-        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        String teacherId = userDetails.getUsername();
-        checkTeacherInCourse(teacherId, courseName);
+    @Override
+    public ElaboratiChangesDTO getElaboratiSince(String courseName, Long consegnaId, Long since, String stato) {
+        checkUltimiElaborati(courseName, consegnaId);
+        long cursor = since != null ? since : 0L;
+        List<ElaboratoForTeacherDTO> elaborati = elaboratoRepository.getElaboratiForTeacherSince(consegnaId, courseName, cursor, stato);
+        if (!elaborati.isEmpty()) {
+            cursor = elaborati.get(elaborati.size() - 1).getId();
+        }
+        return new ElaboratiChangesDTO(elaborati, cursor);
+    }
 
-        List<Elaborato> elaborati = elaboratoRepository.getElaboratiByConsegnaAndCourse(consegnaId, courseName);
+    /*
+     * ETag debole della lista completa degli elaborati: gli elaborati non vengono mai modificati, solo aggiunti
+     * o cancellati insieme allo studente, quindi numero e id massimo (più il numero di iscritti, che cambia le righe NULL
+     * implicite) bastano a riconoscere una lista invariata con una sola query aggregata.
+     */
+    @Override
+    public String getElaboratiETag(String courseName, Long consegnaId) {
+        checkUltimiElaborati(courseName, consegnaId);
+        Object[] versione = elaboratoRepository.getVersione(consegnaId).get(0);
+        return "W/\"" + versione[0] + "-" + versione[1] + "-" + studentRepository.countByCoursesName(courseName) + "\"";
+    }
 
-        List<StudentDTO> studentiIscritti = getEnrolledStudents(courseName);
-        List<ElaboratoForTeacherDTO> elaboratiForTeacher = new ArrayList<>();
+    @Override
+    public ValutazioneConsegnaDTO getValutazioneConsegna(String courseName, Long consegnaId, String stato) {
+        checkUltimiElaborati(courseName, consegnaId);
+        List<ElaboratoForTeacherDTO> elaborati = elaboratiForTeacher(consegnaId, courseName, stato);
 
         /*
-         * per ogni elaborato creo il corrispondente elaboratoForTeacher che in più ha le informazioni sullo studente
+         * il riepilogo considera lo stato corrente di ogni studente iscritto:
+         * chi non ha ancora una riga StatoElaborato è nello stato NULL implicito
          * */
-
-        for (Elaborato elaborato : elaborati) {
-
-            StudentDTO student = null;
-            for (StudentDTO s : studentiIscritti) {
-                if (s.getId().equals(elaborato.getStudent().getId())) {
-                    student = s;
-                    break;
-                }
+        Map<String, Long> perStato = new TreeMap<>();
+        long conStato = 0;
+        long valutati = 0;
+        long votiNumerici = 0;
+        double sommaVoti = 0;
+        for (Object[] row : statoElaboratoRepository.getConteggiStatoVoto(consegnaId)) {
+            String statoCorrente = (String) row[0];
+            String voto = (String) row[1];
+            long studenti = (Long) row[2];
+            perStato.merge(statoCorrente, studenti, Long::sum);
+            conStato += studenti;
+            if (voto == null || voto.equals("-")) {
+                continue;
             }
-            assert student != null;
-            ElaboratoForTeacherDTO elaboratoForTeacherDTO = ElaboratoForTeacherDTO.builder()
-                    .id(elaborato.getId())
-                    .studentId(student.getId())
-                    .name(student.getName())
-                    .firstName(student.getFirstName())
-                    .stato(elaborato.getStato())
-                    .possibileRiconsegna(elaborato.getPossibileRiconsegna())
-                    .voto(elaborato.getVoto())
-                    .dataCaricamento(elaborato.getDataCaricamento())
-                    .build();
-
-            elaboratiForTeacher.add(elaboratoForTeacherDTO);
+            valutati += studenti;
+            try {
+                sommaVoti += Double.parseDouble(voto.trim().replace(',', '.')) * studenti;
+                votiNumerici += studenti;
+            } catch (NumberFormatException ignored) {
+                //voti non numerici (es. "30L") contano tra i valutati ma non nella media
+            }
+        }
+        long senzaStato = studentRepository.countByCoursesName(courseName) - conStato;
+        if (senzaStato > 0) {
+            perStato.merge("NULL", senzaStato, Long::sum);
         }
 
-        return elaboratiForTeacher;
+        RiepilogoElaboratiDTO riepilogo = new RiepilogoElaboratiDTO(perStato, valutati, votiNumerici > 0 ? sommaVoti / votiNumerici : null);
+        return new ValutazioneConsegnaDTO(elaborati, riepilogo);
     }
 
     @Override
-    public List<ElaboratoDTO> getUltimiElaborati(String courseName, Long consegnaId) {
+    public Page<ElaboratoDTO> getUltimiElaborati(String courseName, Long consegnaId, Pageable pageable) {
+        checkUltimiElaborati(courseName, consegnaId);
+        return elaboratoRepository.getUltimiElaborati(consegnaId, courseName, pageable);
+    }
 
-        /*questo metoo serve per ottenere l'ultimo (cronologicamente) elaborato di ogni studente per una consegna di un corso*/
+    @Override
+    public List<ElaboratoContentDTO> getUltimiElaboratiContent(String courseName, Long consegnaId) {
+        checkUltimiElaborati(courseName, consegnaId);
+        /*gli elaborati senza contenuto (LETTO, NULL, consegne vuote) non hanno nulla da esportare*/
+        return elaboratoRepository.getUltimiElaboratiEntities(consegnaId, courseName).stream()
+                .filter(e -> e.getContenuto() != null && e.getContenuto().getContentKey() != null)
+                .map(e -> ElaboratoContentDTO.builder()
+                        .id(e.getId())
+                        .studentId(e.getStudent().getId())
+                        .stato(e.getStato())
+                        .contenuto(leggiContenuto(e.getContenuto()))
+                        .build())
+                .collect(Collectors.toList());
+    }
 
+    private void checkUltimiElaborati(String courseName, Long consegnaId) {
         checkCourseName(courseName);
 
-
         checkConsegnaId(consegnaId);
 
         //Controllo se chi sta ottenendo gli elaborati è un professore titolare del corso
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         String teacherId = userDetails.getUsername();
         checkTeacherInCourse(teacherId, courseName);
-
-        List<Elaborato> elaborati = elaboratoRepository.getElaboratiByConsegnaAndCourse(consegnaId, courseName);
-
-        /*raggruppo gli elaborati di ogni studente*/
-        Map<String, List<Elaborato>> map = elaborati.stream().collect(Collectors.groupingBy(e -> e.getStudent().getId()));
-
-        /*ordino per data di caricamento gli elaborati di ogni studente*/
-        for (String id : map.keySet()) {
-            map.get(id).sort(Comparator.comparing(Elaborato::getDataCaricamento).reversed());
-        }
-
-        /*per ogni studente prendo solo l'ultimo elaborato*/
-        List<Elaborato> result = new ArrayList<>();
-        for (String id : map.keySet()) {
-            result.add(map.get(id).get(0));
-        }
-        return result.stream()
-                .map(e -> modelMapper.map(e, ElaboratoDTO.class)).collect(Collectors.toList());
     }
 
     @Override
-    public Byte[] getElaborato(Long elaboratoId, String courseName, String studentId, Long consegnaId) {
+    public StoredContent getElaborato(Long elaboratoId, String courseName, String studentId, Long consegnaId) {
 
 
-        checkElaboratoId(elaboratoId);
+        if (elaboratoId == null) {
+            throw new InvalidElaboratoException();
+        }
 
-        Elaborato elaborato = elaboratoRepository.getOne(elaboratoId);
+        Elaborato elaborato = trovaElaborato(elaboratoId).orElseThrow(ElaboratoNotFoundException::new);
 
         //controllo che il corso nell'url sia giusto
         if (courseName == null || !courseName.equals(elaborato.getConsegna().getCourse().getName())) {
@@ -1716,7 +1995,7 @@ public class TeamServiceImpl implements TeamService {
         String teacherId = ((UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getUsername();
         checkTeacherInCourse(teacherId, courseName);
 
-        return elaborato.getContenuto();
+        return leggiContenuto(elaborato.getContenuto());
 
     }
 
@@ -1734,6 +2013,10 @@ public class TeamServiceImpl implements TeamService {
         checkTeacherInCourse(teacherId, courseName);
 
         List<Elaborato> elaborati = elaboratoRepository.getElaboratiByConsegnaAndCourseAndStudentId(consegnaId, courseName, studentId);
+        if (consegnaRepository.getOne(consegnaId).isArchiviata()) {
+            elaboratoArchiviatoRepository.findAllByConsegnaIdAndStudentId(consegnaId, studentId)
+                    .forEach(e -> elaborati.add(e.toElaborato()));
+        }
 
         return elaborati.stream()
                 .filter(e -> e.getStato().equals("CONSEGNATO"))
@@ -1978,6 +2261,21 @@ public class TeamServiceImpl implements TeamService {
     }
 
 
+    @Override
+    public StorageStatsDTO getStorageStats(String courseName) {
+        String teacherId = ((UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getUsername();
+        checkTeacherInCourse(teacherId, courseName);
+
+        long contenuti = consegnaRepository.countContenutiForCourse(courseName) + elaboratoRepository.countContenutiForCourse(courseName);
+        long dimensioneLogica = consegnaRepository.getLogicalSizeForCourse(courseName) + elaboratoRepository.getLogicalSizeForCourse(courseName);
+        long dimensioneFisica = contentBlobRepository.getPhysicalSizeForCourse(courseName);
+        long dimensioneSuDisco = contentBlobRepository.getStoredSizeForCourse(courseName);
+        double deduplicazione = dimensioneFisica == 0 ? 1 : (double) dimensioneLogica / dimensioneFisica;
+        double compressione = dimensioneSuDisco == 0 ? 1 : (double) dimensioneFisica / dimensioneSuDisco;
+
+        return new StorageStatsDTO(courseName, contenuti, dimensioneLogica, dimensioneFisica, deduplicazione, dimensioneSuDisco, compressione);
+    }
+
     private void checkTeacherInCourse(String teacherId, String courseName) {
         checkTeacherId(teacherId);
         Teacher teacher = teacherRepository.getOne(teacherId);
@@ -1989,49 +2287,74 @@ public class TeamServiceImpl implements TeamService {
     }
 
 
-    @Scheduled(fixedDelay = 20000)
-    public void checkExpiredConsegne() {
-        List<Consegna> expiredConsegne = consegnaRepository.findAllByScadenzaBefore(new Timestamp(System.currentTimeMillis()));
+    @Override
+    public void chiudiConsegna(Long consegnaId) {
+        if (consegnaRepository.chiudi(consegnaId) == 0) {
+            return;
+        }
+        Consegna consegna = consegnaRepository.getOne(consegnaId);
+
+        /*le letture avvenute prima della scadenza devono comparire nello storico prima della chiusura*/
+        ricevuteLettura.pendentiPerConsegna(consegnaId).forEach(ricevuta -> {
+            applicaLettura(ricevuta);
+            ricevuteLettura.rimuoviDopoCommit(ricevuta);
+        });
 
         Instant instant = Instant.now();
         Timestamp dataConsegna = Timestamp.from(instant);
 
-        List<Student> students = expiredConsegne.stream()
-                .flatMap(c -> c.getElaborati().stream())
-                .map(Elaborato::getStudent).distinct().collect(Collectors.toList());
-
-
         /*
-         * per ogni consegna scaduta, per ogni studente, ottengo la lista temporalmente ordinata di elaborati da lui caricati
-         * se lo studente non ha consegnato in tempo creo un elaborato con stato CONSEGNATO senza contenuto
+         * gli studenti il cui ultimo elaborato è ancora LETTO o NULL (anche implicito) non hanno consegnato in tempo:
+         * creo per tutti insieme un elaborato con stato CONSEGNATO senza contenuto
          * */
-        if (!expiredConsegne.isEmpty()) {
-            expiredConsegne.forEach(
-                    c -> {
-                        students.forEach(s -> {
-                            List<Elaborato> elaborati = s.getElaborati().stream().filter(e -> e.getConsegna().equals(c))
-                                    .sorted(Comparator.comparing(Elaborato::getDataCaricamento).reversed())
-                                    .collect(Collectors.toList());
-
-                            if (!elaborati.isEmpty()) {
-                                Elaborato elaborato = elaborati.get(0);
-
-                                if (elaborato.getStato().equals("LETTO") || elaborato.getStato().equals("NULL")) {
-                                    Elaborato e = Elaborato.builder()
-                                            .consegna(elaborato.getConsegna())
-                                            .dataCaricamento(dataConsegna)
-                                            .stato("CONSEGNATO")
-                                            .student(elaborato.getStudent())
-                                            .voto("-")
-                                            .possibileRiconsegna("-")
-                                            .build();
-                                    elaboratoRepository.save(e);
-
-                                }
-                            }
-                        });
-                    }
-            );
+        statoElaboratoRepository.insertMancanti(consegnaId);
+        List<StatoElaborato> stati = statoElaboratoRepository.findAllForUpdate(consegnaId, Arrays.asList("LETTO", "NULL"));
+
+        /*chi ha iniziato un caricamento a pezzi prima della scadenza può ancora completarlo (vedi chiudiElaborato)*/
+        Set<String> inCaricamento = new HashSet<>(uploadSessionRepository.getStudentIdsByConsegnaId(consegnaId));
+        stati.removeIf(stato -> inCaricamento.contains(stato.getStudent().getId()));
+
+        List<Elaborato> elaborati = stati.stream()
+                .map(stato -> Elaborato.builder()
+                        .consegna(consegna)
+                        .dataCaricamento(dataConsegna)
+                        .stato("CONSEGNATO")
+                        .student(stato.getStudent())
+                        .voto("-")
+                        .possibileRiconsegna("-")
+                        .build())
+                .collect(Collectors.toList());
+        elaboratoRepository.saveAll(elaborati);
+        for (int i = 0; i < stati.size(); i++) {
+            stati.get(i).aggiorna(elaborati.get(i));
+            pubblica(elaborati.get(i));
         }
     }
+
+    @Override
+    public void chiudiElaborato(Long consegnaId, String studentId) {
+        Consegna consegna = consegnaRepository.findById(consegnaId).orElse(null);
+        if (consegna == null || !Boolean.TRUE.equals(consegna.getChiusa()) || uploadSessionRepository.existsByConsegnaIdAndStudentId(consegnaId, studentId)) {
+            return;
+        }
+        applicaLetturaPendente(consegnaId, studentId);
+        Optional<StatoElaborato> stato = statoPerAggiornare(consegnaId, studentId);
+        if (!stato.isPresent() || !(stato.get().getStato().equals("LETTO") || stato.get().getStato().equals("NULL"))) {
+            return;
+        }
+        Elaborato e = Elaborato.builder()
+                .consegna(consegna)
+                .dataCaricamento(new Timestamp(System.currentTimeMillis()))
+                .stato("CONSEGNATO")
+                .student(stato.get().getStudent())
+                .voto("-")
+                .possibileRiconsegna("-")
+                .build();
+        salvaElaborato(e);
+    }
+
+    @Override
+    public void registraLetture(List<RicevuteLettura.Ricevuta> ricevute) {
+        ricevute.forEach(this::applicaLettura);
+    }
 }
@@ -0,0 +1,28 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.dtos.UploadSessionDTO;
+import org.springframework.security.access.prepost.PreAuthorize;
+
+import java.io.InputStream;
+
+/*
+ * Caricamento di un elaborato a pezzi: si apre una sessione, si inviano i pezzi in ordine indicando l'offset
+ * e infine si conferma. Se la connessione cade basta chiedere l'offset e riprendere da lì.
+ */
+public interface UploadService {
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    UploadSessionDTO apriSessione(String studentId, Long consegnaId, Long dimensione);
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    UploadSessionDTO caricaPezzo(String studentId, Long consegnaId, String uploadId, long offset, InputStream pezzo);
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    UploadSessionDTO getSessione(String studentId, Long consegnaId, String uploadId);
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    boolean completa(String studentId, Long consegnaId, String uploadId);
+
+    @PreAuthorize("hasRole('ROLE_STUDENT')")
+    void annulla(String studentId, Long consegnaId, String uploadId);
+}
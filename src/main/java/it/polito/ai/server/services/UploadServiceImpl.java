@@ -0,0 +1,388 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.dtos.UploadSessionDTO;
+import it.polito.ai.server.entities.Consegna;
+import it.polito.ai.server.entities.Student;
+import it.polito.ai.server.entities.UploadSession;
+import it.polito.ai.server.repositories.ConsegnaRepository;
+import it.polito.ai.server.repositories.StudentRepository;
+import it.polito.ai.server.repositories.UploadSessionRepository;
+import it.polito.ai.server.services.exceptions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.transaction.Transactional;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+@Transactional
+public class UploadServiceImpl implements UploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${upload.dir}")
+    private String dir;
+
+    @Value("${upload.max-size}")
+    private long maxSize;
+
+    //una sessione aperta prima della scadenza può essere completata fino a scadenza + questo margine (ms)
+    @Value("${upload.grace-period}")
+    private long gracePeriod;
+
+    //le sessioni senza nuovi pezzi da più di questo tempo (ms) vengono cancellate
+    @Value("${upload.idle-timeout}")
+    private long idleTimeout;
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private ConsegnaRepository consegnaRepository;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //dimensione massima di un singolo pezzo: il client deve dividere il file
+    @Value("${upload.max-chunk-size}")
+    private long maxChunkSize;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.time_zone}")
+    private String dbTimeZone;
+
+    //sessioni con un pezzo in arrivo in questo momento
+    private final Set<String> inCorso = ConcurrentHashMap.newKeySet();
+
+    private Path dirPath;
+
+    @PostConstruct
+    public void init() throws IOException {
+        dirPath = Paths.get(dir).toAbsolutePath().normalize();
+        Files.createDirectories(dirPath);
+    }
+
+    @Override
+    public UploadSessionDTO apriSessione(String studentId, Long consegnaId, Long dimensione) {
+        checkAuthorizationId(studentId);
+        if (consegnaId == null) {
+            throw new InvalidConsegnaException();
+        }
+        Student student = studentRepository.findById(studentId).orElseThrow(StudentNotFoundException::new);
+        Consegna consegna = consegnaRepository.findById(consegnaId).orElseThrow(ConsegnaNotFoundException::new);
+        if (!student.getCourses().contains(consegna.getCourse())) {
+            throw new StudentNotEnrolledException();
+        }
+
+        Timestamp adesso = new Timestamp(System.currentTimeMillis());
+        if (consegna.getScadenza().before(adesso)) {
+            throw new InvalidElaboratoException();
+        }
+        if (dimensione != null && (dimensione < 0 || dimensione > maxSize)) {
+            throw new UploadTooLargeException();
+        }
+
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID().toString())
+                .student(student)
+                .consegna(consegna)
+                .inizio(adesso)
+                .ultimaAttivita(adesso)
+                .offset(0)
+                .dimensione(dimensione)
+                .build();
+        try {
+            Files.createFile(pathOf(session.getId()));
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+        deleteOnRollback(session.getId());
+        uploadSessionRepository.save(session);
+        return toDTO(session);
+    }
+
+    /*
+     * Il corpo del pezzo arriva dalla rete e può essere lento: lo scrivo su disco fuori da qualsiasi transazione.
+     * Le due query (lettura della sessione e avanzamento dell'offset) passano da JdbcTemplate, che prende
+     * una connessione dal pool e la rilascia subito: con open-in-view una query JPA terrebbe la connessione
+     * della richiesta fino alla fine della lettura del corpo.
+     * L'offset avanza con un UPDATE condizionato: 0 righe vuol dire che nel frattempo qualcuno l'ha cambiato.
+     */
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public UploadSessionDTO caricaPezzo(String studentId, Long consegnaId, String uploadId, long offset, InputStream pezzo) {
+        checkAuthorizationId(studentId);
+        SessioneCaricamento session = leggiSessione(uploadId)
+                .filter(sc -> sc.studentId.equals(studentId) && sc.consegnaId.equals(consegnaId))
+                .orElseThrow(UploadSessionNotFoundException::new);
+        if (System.currentTimeMillis() > session.completabileFino()) {
+            throw new InvalidElaboratoException();
+        }
+        if (offset != session.offset) {
+            throw new UploadOffsetMismatchException();
+        }
+        //un solo pezzo alla volta per sessione: un secondo pezzo con lo stesso offset scriverebbe sullo stesso file
+        if (!inCorso.add(uploadId)) {
+            throw new UploadOffsetMismatchException();
+        }
+        long ricevuti;
+        try {
+            ricevuti = scriviPezzo(uploadId, offset, session.dimensione != null ? session.dimensione : maxSize, pezzo);
+            int aggiornate = jdbcTemplate.update(
+                    "UPDATE upload_session SET ricevuti = ?, ultima_attivita = ? WHERE id = ? AND ricevuti = ?",
+                    ps -> {
+                        ps.setLong(1, ricevuti);
+                        ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()), calendarioDb());
+                        ps.setString(3, uploadId);
+                        ps.setLong(4, offset);
+                    });
+            if (aggiornate == 0) {
+                throw new UploadOffsetMismatchException();
+            }
+        } finally {
+            inCorso.remove(uploadId);
+        }
+
+        return UploadSessionDTO.builder()
+                .id(uploadId)
+                .consegnaId(consegnaId)
+                .offset(ricevuti)
+                .dimensione(session.dimensione)
+                .inizio(session.inizio)
+                .completabileFino(new Timestamp(session.completabileFino()))
+                .build();
+    }
+
+    /*
+     * Scrivo dall'offset in poi troncando quello che c'è dopo: se un tentativo precedente è fallito a metà
+     * (e quindi non ha aggiornato l'offset) i byte parziali vengono sovrascritti.
+     */
+    private long scriviPezzo(String uploadId, long offset, long limite, InputStream pezzo) {
+        try (FileChannel file = FileChannel.open(pathOf(uploadId), StandardOpenOption.WRITE);
+             ReadableByteChannel in = Channels.newChannel(pezzo)) {
+            file.truncate(offset);
+            file.position(offset);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                if (file.position() + buffer.remaining() > limite || file.position() + buffer.remaining() - offset > maxChunkSize) {
+                    throw new UploadTooLargeException();
+                }
+                while (buffer.hasRemaining()) {
+                    file.write(buffer);
+                }
+                buffer.clear();
+            }
+            return file.position();
+        } catch (NoSuchFileException e) {
+            //sessione annullata o completata mentre il pezzo era in arrivo
+            throw new UploadSessionNotFoundException();
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+    }
+
+    private Optional<SessioneCaricamento> leggiSessione(String uploadId) {
+        return jdbcTemplate.query(
+                "SELECT u.student_id, u.consegna_id, u.ricevuti, u.dimensione, u.inizio, c.scadenza " +
+                        "FROM upload_session u JOIN consegna c ON c.id = u.consegna_id WHERE u.id = ?",
+                ps -> ps.setString(1, uploadId),
+                (rs, i) -> new SessioneCaricamento(
+                        rs.getString(1),
+                        rs.getLong(2),
+                        rs.getLong(3),
+                        rs.getObject(4, Long.class),
+                        rs.getTimestamp(5, calendarioDb()),
+                        rs.getTimestamp(6, calendarioDb()).getTime() + gracePeriod))
+                .stream().findFirst();
+    }
+
+    //stesso fuso orario usato da Hibernate (hibernate.jdbc.time_zone) per le colonne Timestamp
+    private Calendar calendarioDb() {
+        return Calendar.getInstance(TimeZone.getTimeZone(dbTimeZone));
+    }
+
+    @Override
+    public UploadSessionDTO getSessione(String studentId, Long consegnaId, String uploadId) {
+        checkAuthorizationId(studentId);
+        UploadSession session = uploadSessionRepository.findById(uploadId)
+                .filter(s -> s.getStudent().getId().equals(studentId) && s.getConsegna().getId().equals(consegnaId))
+                .orElseThrow(UploadSessionNotFoundException::new);
+        return toDTO(session);
+    }
+
+    @Override
+    public boolean completa(String studentId, Long consegnaId, String uploadId) {
+        UploadSession session = sessioneForUpdate(studentId, consegnaId, uploadId);
+        if (inCorso.contains(uploadId)) {
+            throw new UploadIncompleteException();
+        }
+        if (session.getDimensione() != null && session.getDimensione() != session.getOffset()) {
+            throw new UploadIncompleteException();
+        }
+
+        boolean result;
+        try (InputStream in = Files.newInputStream(pathOf(uploadId))) {
+            /*la scadenza viene verificata rispetto all'apertura della sessione*/
+            result = teamService.consegnaElaborato(consegnaId, studentId, in, session.getInizio());
+        } catch (IOException e) {
+            throw new ContentStoreException(e);
+        }
+
+        uploadSessionRepository.delete(session);
+        deleteAfterCommit(uploadId);
+        return result;
+    }
+
+    @Override
+    public void annulla(String studentId, Long consegnaId, String uploadId) {
+        UploadSession session = sessioneForUpdate(studentId, consegnaId, uploadId);
+        uploadSessionRepository.delete(session);
+        deleteAfterCommit(uploadId);
+        teamService.chiudiElaborato(consegnaId, studentId);
+    }
+
+    /*
+     * Cancella le sessioni abbandonate e quelle che ormai non potrebbero più essere completate,
+     * insieme ai file temporanei.
+     */
+    @Scheduled(fixedDelayString = "${upload.cleanup-delay}")
+    public void deleteExpiredSessions() {
+        long adesso = System.currentTimeMillis();
+        List<UploadSession> scadute = uploadSessionRepository.findExpired(new Timestamp(adesso - idleTimeout), new Timestamp(adesso - gracePeriod));
+        scadute.forEach(s -> {
+            uploadSessionRepository.delete(s);
+            deleteAfterCommit(s.getId());
+            /*se la consegna è già stata chiusa l'elaborato di questo studente era rimasto aperto*/
+            teamService.chiudiElaborato(s.getConsegna().getId(), s.getStudent().getId());
+        });
+
+        /*file rimasti senza sessione (es. consegna cancellata): una sessione attiva li modifica ad ogni pezzo*/
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dirPath, "*.part")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < adesso - idleTimeout) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private UploadSession sessioneForUpdate(String studentId, Long consegnaId, String uploadId) {
+        checkAuthorizationId(studentId);
+        UploadSession session = uploadSessionRepository.findForUpdate(uploadId)
+                .filter(s -> s.getStudent().getId().equals(studentId) && s.getConsegna().getId().equals(consegnaId))
+                .orElseThrow(UploadSessionNotFoundException::new);
+        if (System.currentTimeMillis() > completabileFino(session).getTime()) {
+            throw new InvalidElaboratoException();
+        }
+        return session;
+    }
+
+    private static class SessioneCaricamento {
+
+        private final String studentId;
+        private final Long consegnaId;
+        private final long offset;
+        private final Long dimensione;
+        private final Timestamp inizio;
+        private final long completabileFino;
+
+        SessioneCaricamento(String studentId, Long consegnaId, long offset, Long dimensione, Timestamp inizio, long completabileFino) {
+            this.studentId = studentId;
+            this.consegnaId = consegnaId;
+            this.offset = offset;
+            this.dimensione = dimensione;
+            this.inizio = inizio;
+            this.completabileFino = completabileFino;
+        }
+
+        long completabileFino() {
+            return completabileFino;
+        }
+    }
+
+    private Timestamp completabileFino(UploadSession session) {
+        return new Timestamp(session.getConsegna().getScadenza().getTime() + gracePeriod);
+    }
+
+    private UploadSessionDTO toDTO(UploadSession session) {
+        return UploadSessionDTO.builder()
+                .id(session.getId())
+                .consegnaId(session.getConsegna().getId())
+                .offset(session.getOffset())
+                .dimensione(session.getDimensione())
+                .inizio(session.getInizio())
+                .completabileFino(completabileFino(session))
+                .build();
+    }
+
+    private Path pathOf(String uploadId) {
+        return dirPath.resolve(uploadId + ".part");
+    }
+
+    private void deleteAfterCommit(String uploadId) {
+        Path path = pathOf(uploadId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                deleteQuietly(path);
+            }
+        });
+    }
+
+    private void deleteOnRollback(String uploadId) {
+        Path path = pathOf(uploadId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    deleteQuietly(path);
+                }
+            }
+        });
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private void checkAuthorizationId(String userId) {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (userId == null || !userId.equals(userDetails.getUsername())) {
+            throw new InvalidUserException();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package it.polito.ai.server.services.exceptions;
+
+public class ContentStoreException extends TeamServiceException {
+
+    public ContentStoreException(Throwable cause) {
+        initCause(cause);
+    }
+}
@@ -0,0 +1,4 @@
+package it.polito.ai.server.services.exceptions;
+
+public class UploadOffsetMismatchException extends UploadServiceException {
+}
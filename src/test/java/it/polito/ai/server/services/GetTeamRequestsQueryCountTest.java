@@ -0,0 +1,210 @@
+package it.polito.ai.server.services;
+
+import it.polito.ai.server.dtos.PropostaTeamDTO;
+import it.polito.ai.server.dtos.StudentWithStatusDTO;
+import it.polito.ai.server.entities.Course;
+import it.polito.ai.server.entities.Student;
+import it.polito.ai.server.entities.Team;
+import it.polito.ai.server.entities.Token;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Fissa il numero di statement eseguiti da getTeamRequests: non deve dipendere dal numero di proposte né di membri.
+ * Oltre ai 2 controlli iniziali (studente e corso) il caricamento deve costare esattamente 3 statement.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ContextConfiguration(classes = GetTeamRequestsQueryCountTest.Config.class)
+class GetTeamRequestsQueryCountTest {
+
+    /*existsById dello studente e findById del corso, eseguiti prima del caricamento*/
+    private static final long STATEMENT_CONTROLLI = 2;
+    /*token dello studente, team con corso e membri, token in attesa di quei team*/
+    private static final long STATEMENT_CARICAMENTO = 3;
+
+    private static final String CORSO = "ai";
+    private static final String STUDENTE = "s0";
+
+    @Configuration
+    @EntityScan("it.polito.ai.server.entities")
+    @EnableJpaRepositories("it.polito.ai.server.repositories")
+    @Import(TeamServiceImpl.class)
+    static class Config {
+
+        @Bean
+        ModelMapper modelMapper() {
+            return new ModelMapper();
+        }
+    }
+
+    @MockBean
+    private NotificationService notificationService;
+    @MockBean
+    private UserDetailsServiceImpl userDetailsService;
+    @MockBean
+    private ContentStore contentStore;
+    @MockBean
+    private ImmaginiProfilo immaginiProfilo;
+    @MockBean
+    private ConsegneCache consegneCache;
+    @MockBean
+    private ScadenzeConsegne scadenzeConsegne;
+    @MockBean
+    private RicevuteLettura ricevuteLettura;
+    @MockBean
+    private IndiceTeam indiceTeam;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Course course;
+
+    @BeforeEach
+    void setUp() {
+        course = new Course();
+        course.setName(CORSO);
+        course.setEnabled(true);
+        course.setMin(1);
+        course.setMax(10);
+        em.persist(course);
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                new User(STUDENTE, "", Collections.emptyList()), null, Collections.emptyList()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void statementCostantiAlCrescereDiProposteEMembri() {
+        Student studente = studente(STUDENTE);
+        proposte(studente, 2, 3);
+        assertEquals(STATEMENT_CARICAMENTO, statementPerGetTeamRequests(2) - STATEMENT_CONTROLLI);
+
+        proposte(studente, 6, 5);
+        assertEquals(STATEMENT_CARICAMENTO, statementPerGetTeamRequests(8) - STATEMENT_CONTROLLI);
+    }
+
+    @Test
+    void statoDeiMembriEProposteDiAltriCorsi() {
+        Student studente = studente(STUDENTE);
+        proposte(studente, 1, 3);
+
+        //proposta di un altro corso: non deve comparire
+        Course altro = new Course();
+        altro.setName("altro");
+        em.persist(altro);
+        Team team = team(altro, studente, Collections.singletonList(studente(UUID.randomUUID().toString())));
+        token(studente, team);
+
+        em.flush();
+        em.clear();
+        List<PropostaTeamDTO> proposte = teamService.getTeamRequests(CORSO, STUDENTE);
+
+        assertEquals(1, proposte.size());
+        List<StudentWithStatusDTO> membri = proposte.get(0).getStudentWithStatusDTOS();
+        assertEquals(4, membri.size());
+        //il primo membro di ogni proposta ha già confermato, gli altri (studente compreso) sono in attesa
+        assertEquals(1, membri.stream().filter(m -> m.getStatus().equals("Partecipazione Confermata")).count());
+        assertTrue(membri.stream().anyMatch(m -> m.getId().equals(STUDENTE) && m.getStatus().equals("In attesa di risposta")));
+    }
+
+    private long statementPerGetTeamRequests(int proposteAttese) {
+        em.flush();
+        em.clear();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<PropostaTeamDTO> proposte = teamService.getTeamRequests(CORSO, STUDENTE);
+
+        long statement = statistics.getPrepareStatementCount();
+        assertEquals(proposteAttese, proposte.size());
+        return statement;
+    }
+
+    /*crea proposte con membri altri studenti: il primo ha confermato, gli altri e lo studente hanno un token*/
+    private void proposte(Student studente, int numero, int altriMembri) {
+        Course corso = em.find(Course.class, CORSO);
+        Student s = em.find(Student.class, studente.getId());
+        for (int i = 0; i < numero; i++) {
+            List<Student> altri = new ArrayList<>();
+            for (int j = 0; j < altriMembri; j++) {
+                Student membro = studente(UUID.randomUUID().toString());
+                corso.addStudent(membro);
+                altri.add(membro);
+            }
+            Team team = team(corso, s, altri);
+            token(s, team);
+            altri.stream().skip(1).collect(Collectors.toList()).forEach(m -> token(m, team));
+        }
+    }
+
+    private Team team(Course corso, Student studente, List<Student> altri) {
+        Team team = new Team();
+        team.setName("team-" + UUID.randomUUID());
+        team.setCourse(corso);
+        team.addStudent(studente);
+        altri.forEach(team::addStudent);
+        em.persist(team);
+        return team;
+    }
+
+    private Student studente(String id) {
+        Student studente = new Student();
+        studente.setId(id);
+        studente.setName("n" + id);
+        studente.setFirstName("f" + id);
+        studente.setTokens(new ArrayList<>());
+        Course corso = em.find(Course.class, CORSO);
+        if (corso != null && id.equals(STUDENTE)) {
+            corso.addStudent(studente);
+        }
+        em.persist(studente);
+        return studente;
+    }
+
+    private void token(Student studente, Team team) {
+        em.persist(Token.builder()
+                .id(UUID.randomUUID().toString())
+                .teamId(team.getId())
+                .expiryDate(new Timestamp(System.currentTimeMillis() + 3600000))
+                .student(studente)
+                .build());
+    }
+}